@@ -7,5 +7,4 @@ dependencies {
     api("org.ow2.asm:asm-commons:_")
     api("org.ow2.asm:asm-tree:_")
     api("org.ow2.asm:asm-util:_")
-    api("org.jgrapht:jgrapht-core:_")
 }
\ No newline at end of file
@@ -73,9 +73,9 @@ public class Block extends GraphNode {
 
 	Set pdomChildren; // The postdominator children of this block
 
-	Set domFrontier; // This Block's dominance frontier
+	int[] domFrontier; // Pre-order indices of the dominance frontier
 
-	Set pdomFrontier; // This Block's postdominace frontier
+	int[] pdomFrontier; // Pre-order indices of the postdominance frontier
 
 	int blockType; // NON_HEADER, IRREDUCIBLE, or REDUCIBLE
 
@@ -107,8 +107,8 @@ public class Block extends GraphNode {
 		domChildren = new HashSet();
 		pdomChildren = new HashSet();
 
-		domFrontier = new HashSet();
-		pdomFrontier = new HashSet();
+		domFrontier = new int[0];
+		pdomFrontier = new int[0];
 
 		stackOptimizer = new StackOptimizer(this); // make StackOptimizer
 													// object
@@ -362,9 +362,21 @@ public class Block extends GraphNode {
 	 */
 	Collection domFrontier() {
 		Assert.isTrue(domFrontier != null);
+		return DominanceFrontier.blocks(graph, domFrontier);
+	}
+
+	/**
+	 * Returns the sorted pre-order indices of the blocks in this block's
+	 * dominance frontier.
+	 */
+	int[] domFrontierIndices() {
 		return domFrontier;
 	}
 
+	void setDomFrontier(final int[] frontier) {
+		domFrontier = frontier;
+	}
+
 	/**
 	 * Returns the postdominance frontier for this node. A postdominace frontier
 	 * is essentially the same as a dominace frontier, but the postdominance
@@ -372,6 +384,14 @@ public class Block extends GraphNode {
 	 */
 	Collection pdomFrontier() {
 		Assert.isTrue(pdomFrontier != null);
+		return DominanceFrontier.blocks(graph, pdomFrontier);
+	}
+
+	int[] pdomFrontierIndices() {
 		return pdomFrontier;
 	}
+
+	void setPdomFrontier(final int[] frontier) {
+		pdomFrontier = frontier;
+	}
 }
@@ -33,14 +33,25 @@ import java.util.*;
  * <p>
  * <tt>DominanceFrontier</tt> can be used to calculate both the dominance
  * (forward) and the postdominance (reverse) frontiers for a control flow graph.
+ * The frontier of each block is stored as a sorted array of the pre-order
+ * indices of the blocks in it.
  * 
  * @see FlowGraph
  */
 
 public class DominanceFrontier {
+	private static final int[] EMPTY = new int[0];
+
 	/**
 	 * Calculates the dominance frontier for a cfg and notifies the blocks in it
 	 * appropriately.
+	 * <p>
+	 * For each block w, we walk up the (post)dominator tree from each of w's
+	 * predacessors until we reach w's immediate (post)dominator. Every block
+	 * on the way dominates a predacessor of w without strictly dominating w, so
+	 * w is in its frontier. This is the algorithm from Cooper, Harvey and
+	 * Kennedy, "A Simple, Fast Dominance Algorithm", and only touches each
+	 * block once for each block in its frontier.
 	 * 
 	 * @param graph
 	 *            The cfg to operate on
@@ -48,111 +59,145 @@ public class DominanceFrontier {
 	 *            Do we calculate the postdominance frontier?
 	 */
 	public static void buildFrontier(final FlowGraph graph, boolean reverse) {
-		if (!reverse) {
-			DominanceFrontier.calcFrontier(graph.source(), graph, reverse);
-		} else {
-			DominanceFrontier.calcFrontier(graph.sink(), graph, reverse);
-		}
-	}
+		final List blocks = graph.preOrder();
+		final int size = blocks.size();
 
-	/**
-	 * Recursively traverses the cfg and builds up the dominance frontier.
-	 * <p>
-	 * A block n's dominance frontier is the union of two sets of nodes. The
-	 * first set is the nodes in the dominance frontier of the nodes that n
-	 * dominates that are not dominated by n's immediate dominator. The second
-	 * set consists of the successors of n that are not strictly dominated by n.
-	 * 
-	 * @param block
-	 *            The block to start from (either source or sink)
-	 * @param graph
-	 *            The cfg from which to get blocks
-	 * @param reverse
-	 *            Do we calculate the dominance or postdominance frontier?
-	 * 
-	 * @return The blocks in the (post)dominance frontier of block
-	 */
-	private static LinkedList calcFrontier(final Block block,
-			final FlowGraph graph, boolean reverse) {
-		// local is an array of Blocks that are in block's dominance
-		// frontier. It is indexed by the block's pre-order index. I
-		// suppose an array is used so that no block is added to the
-		// dominance frontier twice.
-		final Block[] local = new Block[graph.size()];
-
-		Iterator children; // The blocks that are dominated by block
-
-		if (!reverse) {
-			children = block.domChildren().iterator();
-		} else {
-			children = block.pdomChildren().iterator();
-		}
+		// The pre-order index of the immediate (post)dominator of each
+		// block, or -1 for the root.
+		final int[] idom = new int[size];
 
-		// Recursively calculate the nodes in the dominance frontier of
-		// block that are not dominated by block's immediate dominator
-		while (children.hasNext()) {
-			final Block child = (Block) children.next();
+		// The predacessors of each block in the direction of the analysis
+		final int[][] preds = new int[size][];
 
-			final LinkedList df = DominanceFrontier.calcFrontier(child, graph,
-					reverse);
+		for (int i = 0; i < size; i++) {
+			final Block block = (Block) blocks.get(i);
+			final Block parent = reverse ? block.pdomParent() : block
+					.domParent();
 
-			final Iterator e = df.iterator();
+			idom[i] = parent != null ? graph.preOrderIndex(parent) : -1;
 
-			while (e.hasNext()) {
-				final Block dfChild = (Block) e.next();
+			final Collection p = reverse ? graph.succs(block) : graph
+					.preds(block);
+			preds[i] = new int[p.size()];
 
-				if (!reverse) {
-					if (block != dfChild.domParent()) {
-						local[graph.preOrderIndex(dfChild)] = dfChild;
-					}
+			final Iterator iter = p.iterator();
+			int n = 0;
+
+			while (iter.hasNext()) {
+				preds[i][n++] = graph.preOrderIndex((Block) iter.next());
+			}
+		}
 
-				} else {
-					if (block != dfChild.pdomParent()) {
-						local[graph.preOrderIndex(dfChild)] = dfChild;
+		// The first pass counts the size of each frontier and the second
+		// fills them in. last[x] is the last block added to x's frontier. If
+		// a walk finds w already in a frontier, the rest of the walk has
+		// already been done from another predacessor of w.
+		final int[][] frontiers = new int[size][];
+		final int[] counts = new int[size];
+		final int[] last = new int[size];
+
+		for (int pass = 0; pass < 2; pass++) {
+			Arrays.fill(last, -1);
+
+			for (int w = 0; w < size; w++) {
+				for (int j = 0; j < preds[w].length; j++) {
+					int runner = preds[w][j];
+
+					while ((runner >= 0) && (runner != idom[w])
+							&& (last[runner] != w)) {
+						last[runner] = w;
+
+						if (pass == 0) {
+							counts[runner]++;
+						} else {
+							frontiers[runner][frontiers[runner].length
+									- counts[runner]--] = w;
+						}
+
+						runner = idom[runner];
 					}
 				}
 			}
-		}
 
-		final Iterator succs = reverse ? graph.preds(block).iterator() : graph
-				.succs(block).iterator();
+			if (pass == 0) {
+				for (int i = 0; i < size; i++) {
+					frontiers[i] = counts[i] > 0 ? new int[counts[i]] : EMPTY;
+				}
+			}
+		}
 
-		// Caculate the successors of block that are not strictly
-		// dominated by block.
-		while (succs.hasNext()) {
-			final Block succ = (Block) succs.next();
+		// Set each block's (post)dominance frontier
+		for (int i = 0; i < size; i++) {
+			final Block block = (Block) blocks.get(i);
 
-			// If block is not the immediate (post)dominator of its
-			// successor, add it to block's dominance frontier.
 			if (!reverse) {
-				if (block != succ.domParent()) {
-					local[graph.preOrderIndex(succ)] = succ;
-				}
-
+				block.setDomFrontier(frontiers[i]);
 			} else {
-				if (block != succ.pdomParent()) {
-					local[graph.preOrderIndex(succ)] = succ;
-				}
+				block.setPdomFrontier(frontiers[i]);
 			}
 		}
+	}
 
-		final LinkedList v = new LinkedList(); // The dominance frontier
+	/**
+	 * Returns a read-only list of the blocks with the given pre-order indices.
+	 */
+	static List blocks(final FlowGraph graph, final int[] indices) {
+		return new AbstractList() {
+			public Object get(final int index) {
+				return graph.preOrder().get(indices[index]);
+			}
 
-		for (int i = 0; i < local.length; i++) {
-			if (local[i] != null) {
-				v.add(local[i]);
+			public int size() {
+				return indices.length;
 			}
-		}
+		};
+	}
 
-		// Set block's (post)dominance frontier
-		if (!reverse) {
-			block.domFrontier().clear();
-			block.domFrontier().addAll(v);
-		} else {
-			block.pdomFrontier().clear();
-			block.pdomFrontier().addAll(v);
-		}
+	/**
+	 * Returns a read-only set of the blocks whose pre-order indices are set in
+	 * the given bit set. The bit set must not be changed afterwards.
+	 */
+	static Set blocks(final FlowGraph graph, final BitSet indices) {
+		final int size = indices.cardinality();
 
-		return v;
+		return new AbstractSet() {
+			public boolean contains(final Object obj) {
+				if (!(obj instanceof Block)) {
+					return false;
+				}
+
+				final int index = graph.preOrderIndex((Block) obj);
+				return (index >= 0) && indices.get(index)
+						&& (graph.preOrder().get(index) == obj);
+			}
+
+			public Iterator iterator() {
+				return new Iterator() {
+					int next = indices.nextSetBit(0);
+
+					public boolean hasNext() {
+						return next >= 0;
+					}
+
+					public Object next() {
+						if (next < 0) {
+							throw new NoSuchElementException();
+						}
+
+						final Object block = graph.preOrder().get(next);
+						next = indices.nextSetBit(next + 1);
+						return block;
+					}
+
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+
+			public int size() {
+				return size;
+			}
+		};
 	}
 }
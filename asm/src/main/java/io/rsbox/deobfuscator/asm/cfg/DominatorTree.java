@@ -28,8 +28,11 @@ import io.rsbox.deobfuscator.asm.util.Assert;
 /**
  * DominatorTree finds the dominator tree of a FlowGraph.
  * <p>
- * The algorithm used is Purdum-Moore. It isn't as fast as Lengauer-Tarjan, but
- * it's a lot simpler.
+ * Two algorithms are available. Cooper-Harvey-Kennedy, the default, walks the
+ * immediate dominators of each block's predecessors by their postorder index
+ * until they meet, and runs in near linear time and space on the graphs found
+ * in practice. Purdum-Moore intersects a bit vector of dominators per block,
+ * which is quadratic in the number of blocks, and is kept for cross-checking.
  * 
  * @see FlowGraph
  * @see Block
@@ -37,9 +40,19 @@ import io.rsbox.deobfuscator.asm.util.Assert;
 public class DominatorTree {
 	public static boolean DEBUG = false;
 
+	public static final int PURDUM_MOORE = 0;
+
+	public static final int COOPER_HARVEY_KENNEDY = 1;
+
+	/**
+	 * The algorithm used by buildTree(FlowGraph, boolean).
+	 */
+	public static int ALGORITHM = DominatorTree.COOPER_HARVEY_KENNEDY;
+
 	/**
 	 * Calculates what vertices dominate other verices and notify the basic
-	 * Blocks as to who their dominator is.
+	 * Blocks as to who their dominator is, using the algorithm selected by
+	 * ALGORITHM.
 	 * 
 	 * @param graph
 	 *            The cfg that is used to find the dominator tree.
@@ -49,6 +62,254 @@ public class DominatorTree {
 	 * @see Block
 	 */
 	public static void buildTree(final FlowGraph graph, boolean reverse) {
+		DominatorTree.buildTree(graph, reverse, DominatorTree.ALGORITHM);
+	}
+
+	/**
+	 * Calculates what vertices dominate other verices using the given
+	 * algorithm.
+	 * 
+	 * @param graph
+	 *            The cfg that is used to find the dominator tree.
+	 * @param reverse
+	 *            Are we computing the dominance (false) or postdominance
+	 *            (true) tree?
+	 * @param algorithm
+	 *            PURDUM_MOORE or COOPER_HARVEY_KENNEDY.
+	 */
+	public static void buildTree(final FlowGraph graph, boolean reverse,
+			final int algorithm) {
+		if (algorithm == DominatorTree.PURDUM_MOORE) {
+			DominatorTree.buildTreePurdumMoore(graph, reverse);
+
+		} else if (algorithm == DominatorTree.COOPER_HARVEY_KENNEDY) {
+			DominatorTree.buildTreeCooperHarveyKennedy(graph, reverse);
+
+		} else {
+			throw new IllegalArgumentException("Unknown dominator algorithm: "
+					+ algorithm);
+		}
+	}
+
+	/**
+	 * Computes the dominators with the algorithm from Cooper, Harvey and
+	 * Kennedy, "A Simple, Fast Dominance Algorithm". Blocks are numbered by
+	 * their postorder index in the direction of the analysis, and the
+	 * immediate dominator of each block is the point at which the dominator
+	 * chains of its predecessors meet. The blocks are revisited in reverse
+	 * postorder until nothing changes, which takes a couple of passes for
+	 * reducible graphs.
+	 */
+	private static void buildTreeCooperHarveyKennedy(final FlowGraph graph,
+			final boolean reverse) {
+		final int size = graph.size();
+		final List blocks = graph.preOrder();
+
+		final Map snkPreds = new HashMap();
+		DominatorTree.insertEdgesToSink(graph, snkPreds, reverse);
+
+		final int root = reverse ? graph.preOrderIndex(graph.sink()) : graph
+				.preOrderIndex(graph.source());
+
+		Assert.isTrue((0 <= root) && (root < size));
+
+		// The edges in the direction of the analysis, by preorder index,
+		// including the edges between the leaves and the sink.
+		final int[][] succs = new int[size][];
+		final int[][] preds = new int[size][];
+
+		final Block sink = graph.sink();
+		final Set leaves = reverse ? snkPreds.keySet() : (Set) snkPreds
+				.get(sink);
+
+		for (int i = 0; i < size; i++) {
+			final Block block = (Block) blocks.get(i);
+
+			final boolean isLeaf = (leaves != null) && leaves.contains(block);
+			final Collection toSink = isLeaf ? Collections.singleton(sink)
+					: null;
+			final Collection fromLeaves = block == sink ? leaves : null;
+
+			if (!reverse) {
+				succs[i] = DominatorTree.indices(graph, graph.succs(block),
+						toSink);
+				preds[i] = DominatorTree.indices(graph, graph.preds(block),
+						fromLeaves);
+			} else {
+				succs[i] = DominatorTree.indices(graph, graph.preds(block),
+						fromLeaves);
+				preds[i] = DominatorTree.indices(graph, graph.succs(block),
+						toSink);
+			}
+		}
+
+		// Number the blocks in postorder with an iterative depth first
+		// search from the root.
+		final int[] postIndex = new int[size];
+		final int[] order = new int[size];
+		final int[] stack = new int[size];
+		final int[] next = new int[size];
+		final boolean[] visited = new boolean[size];
+		int count = 0;
+		int depth = 0;
+
+		stack[depth++] = root;
+		visited[root] = true;
+
+		while (depth > 0) {
+			final int v = stack[depth - 1];
+
+			if (next[v] < succs[v].length) {
+				final int w = succs[v][next[v]++];
+
+				if (!visited[w]) {
+					visited[w] = true;
+					stack[depth++] = w;
+				}
+			} else {
+				postIndex[v] = count;
+				order[count++] = v;
+				depth--;
+			}
+		}
+
+		// idom[i] is the preorder index of the immediate dominator of block
+		// i, or -1 if it has not been computed yet.
+		final int[] idom = new int[size];
+		Arrays.fill(idom, -1);
+		idom[root] = root;
+
+		boolean changed = true;
+
+		while (changed) {
+			changed = false;
+
+			// The root is last in postorder, so skip it.
+			for (int k = count - 2; k >= 0; k--) {
+				final int b = order[k];
+				int newIdom = -1;
+
+				for (int j = 0; j < preds[b].length; j++) {
+					final int p = preds[b][j];
+
+					if (idom[p] == -1) {
+						continue;
+					}
+
+					if (newIdom == -1) {
+						newIdom = p;
+					} else {
+						newIdom = DominatorTree.intersect(idom, postIndex, p,
+								newIdom);
+					}
+				}
+
+				if (idom[b] != newIdom) {
+					idom[b] = newIdom;
+					changed = true;
+				}
+			}
+		}
+
+		for (int i = 0; i < size; i++) {
+			final Block block = (Block) blocks.get(i);
+			if (!reverse) {
+				block.setDomParent(null);
+				block.domChildren().clear();
+			} else {
+				block.setPdomParent(null);
+				block.pdomChildren().clear();
+			}
+		}
+
+		for (int i = 0; i < size; i++) {
+			if (i == root) {
+				continue;
+			}
+
+			final Block block = (Block) blocks.get(i);
+
+			Assert.isTrue(idom[i] >= 0, block + " has 0 immediate "
+					+ (reverse ? "postdominators" : "dominators"));
+
+			final Block parent = (Block) blocks.get(idom[i]);
+
+			if (!reverse) {
+				if (DominatorTree.DEBUG) {
+					System.out.println(parent + " dominates " + block);
+				}
+
+				block.setDomParent(parent);
+
+			} else {
+				if (DominatorTree.DEBUG) {
+					System.out.println(parent + " postdominates " + block);
+				}
+
+				block.setPdomParent(parent);
+			}
+		}
+	}
+
+	/**
+	 * Walks up the dominator tree from two blocks until they meet. Blocks
+	 * closer to the root have a higher postorder index.
+	 */
+	private static int intersect(final int[] idom, final int[] postIndex,
+			int a, int b) {
+		while (a != b) {
+			while (postIndex[a] < postIndex[b]) {
+				a = idom[a];
+			}
+
+			while (postIndex[b] < postIndex[a]) {
+				b = idom[b];
+			}
+		}
+
+		return a;
+	}
+
+	/**
+	 * Returns the preorder indices of the given blocks, followed by those of
+	 * the extra blocks, if any.
+	 */
+	private static int[] indices(final FlowGraph graph, final Collection blocks,
+			final Collection extra) {
+		final int[] indices = new int[blocks.size()
+				+ (extra != null ? extra.size() : 0)];
+		int n = 0;
+
+		Iterator iter = blocks.iterator();
+
+		while (iter.hasNext()) {
+			final Block block = (Block) iter.next();
+			final int index = graph.preOrderIndex(block);
+			Assert.isTrue(index >= 0, "Unreachable block " + block);
+			indices[n++] = index;
+		}
+
+		if (extra != null) {
+			iter = extra.iterator();
+
+			while (iter.hasNext()) {
+				final Block block = (Block) iter.next();
+				final int index = graph.preOrderIndex(block);
+				Assert.isTrue(index >= 0, "Unreachable block " + block);
+				indices[n++] = index;
+			}
+		}
+
+		return indices;
+	}
+
+	/**
+	 * Computes the dominators by intersecting bit vectors of dominators until
+	 * they stop changing, then picks each block's immediate dominator out of
+	 * its dominators.
+	 */
+	private static void buildTreePurdumMoore(final FlowGraph graph,
+			boolean reverse) {
 		final int size = graph.size(); // The number of vertices in the cfg
 
 		final Map snkPreds = new HashMap(); // The predacessor vertices from the
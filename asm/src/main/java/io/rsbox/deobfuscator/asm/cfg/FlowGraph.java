@@ -95,6 +95,12 @@ public class FlowGraph extends Graph {
 
 	int loopEdgeModCount;
 
+	// Reused by idf() for its worklist of pre-order indices, which is why
+	// idf() is not reentrant
+	private int[] idfWorklist = new int[0];
+
+	private final BitSet idfInWorklist = new BitSet();
+
 	// The maximum (greatest) loop depth/level
 	int maxLoopDepth = 0;
 
@@ -3032,7 +3038,8 @@ public class FlowGraph extends Graph {
 	}
 
 	/**
-	 * Returns the iterated dominance frontiers for several basic blocks.
+	 * Returns the iterated dominance frontiers for several basic blocks. See
+	 * {@link #idf} for how long the result stays valid.
 	 * 
 	 * @see Block#domFrontier
 	 */
@@ -3042,6 +3049,7 @@ public class FlowGraph extends Graph {
 
 	/**
 	 * Returns the iterated postdominance frontier for several basic blocks.
+	 * See {@link #idf} for how long the result stays valid.
 	 * 
 	 * @see Block#pdomFrontier
 	 */
@@ -3058,9 +3066,19 @@ public class FlowGraph extends Graph {
 	 * The iterated dominance frontier is particularly useful because the DF+ of
 	 * an assignment node for a variable (expression) specifies the nodes at
 	 * which phi-functions (PHI-functions) need to be inserted.
+	 * <p>
+	 * This method is not reentrant: every call shares the graph's worklist
+	 * (<tt>idfWorklist</tt> and <tt>idfInWorklist</tt>), so it must not be
+	 * called again while another call on the same graph is in progress, for
+	 * instance from another thread.
+	 * <p>
+	 * The returned set is a read-only view over pre-order indices that looks
+	 * its blocks up in the current {@link #preOrder()}. It is only meaningful
+	 * until the edges of the graph change; callers that keep it longer than
+	 * that must copy it first.
 	 * 
 	 * @param blocks
-	 *            The
+	 *            The blocks whose frontier is iterated
 	 * @param reverse
 	 *            Do we find the reverse (i.e. postdominance) dominance
 	 *            frontier.
@@ -3072,35 +3090,51 @@ public class FlowGraph extends Graph {
 			computeDominators();
 		}
 
-		final HashSet idf = new HashSet();
+		final int size = size();
 
-		final HashSet inWorklist = new HashSet(blocks);
-		final LinkedList worklist = new LinkedList(inWorklist);
+		if (idfWorklist.length < size) {
+			idfWorklist = new int[size];
+		}
 
-		while (!worklist.isEmpty()) {
-			final Block block = (Block) worklist.removeFirst();
+		final int[] worklist = idfWorklist;
+		final BitSet inWorklist = idfInWorklist;
+		final BitSet idf = new BitSet(size);
 
-			Collection df;
+		inWorklist.clear();
+		int top = 0;
 
-			if (!reverse) {
-				df = block.domFrontier();
-			} else {
-				df = block.pdomFrontier();
+		Iterator iter = blocks.iterator();
+
+		while (iter.hasNext()) {
+			final int index = preOrderIndex((Block) iter.next());
+
+			if (!inWorklist.get(index)) {
+				inWorklist.set(index);
+				worklist[top++] = index;
 			}
+		}
 
-			final Iterator iter = df.iterator();
+		// Each block enters the worklist at most once, so it never holds
+		// more than size blocks.
+		final List order = preOrder();
 
-			while (iter.hasNext()) {
-				final Block dfBlock = (Block) iter.next();
-				idf.add(dfBlock);
+		while (top > 0) {
+			final Block block = (Block) order.get(worklist[--top]);
+
+			final int[] df = reverse ? block.pdomFrontierIndices() : block
+					.domFrontierIndices();
+
+			for (int i = 0; i < df.length; i++) {
+				idf.set(df[i]);
 
-				if (inWorklist.add(dfBlock)) {
-					worklist.add(dfBlock);
+				if (!inWorklist.get(df[i])) {
+					inWorklist.set(df[i]);
+					worklist[top++] = df[i];
 				}
 			}
 		}
 
-		return idf;
+		return DominanceFrontier.blocks(this, idf);
 	}
 
 	/**
@@ -3226,8 +3260,8 @@ public class FlowGraph extends Graph {
 		block.setPdomParent(null);
 		block.domChildren().clear();
 		block.pdomChildren().clear();
-		block.domFrontier().clear();
-		block.pdomFrontier().clear();
+		block.setDomFrontier(new int[0]);
+		block.setPdomFrontier(new int[0]);
 
 		Iterator iter = handlers.values().iterator();
 
@@ -31,6 +31,11 @@ import java.util.*;
  * if a Graph represents a control flow graph, each GraphNode would be
  * associated with a basic block.
  * 
+ * The nodes are kept in a table indexed by their ids, and the edges are
+ * stored as arrays of node ids in the nodes themselves. The pre-order and
+ * post-order traversals are computed without recursion and are cached until
+ * the graph is next modified.
+ * 
  * @see #addNode
  * @see #addEdge
  * 
@@ -40,10 +45,22 @@ import java.util.*;
 public class Graph {
 	private NodeMap nodes; // The nodes in this Graph
 
+	private GraphNode[] table; // The nodes in this Graph indexed by their ids
+
+	private int tableSize; // One more than the highest id in use
+
+	private int[] freeIds; // Ids of removed nodes to be reused
+
+	private int freeCount;
+
 	private NodeList preOrder; // 
 
 	private NodeList postOrder;
 
+	private int[] stack; // Scratch space for traversing the graph
+
+	private int[] cursors;
+
 	private Collection roots; // The root nodes of this Graph (no
 								// predacessors)
 
@@ -70,8 +87,14 @@ public class Graph {
 	 */
 	public Graph() {
 		nodes = new NodeMap();
+		table = new GraphNode[16];
+		tableSize = 0;
+		freeIds = GraphNode.EMPTY;
+		freeCount = 0;
 		preOrder = null;
 		postOrder = null;
+		stack = GraphNode.EMPTY;
+		cursors = GraphNode.EMPTY;
 		roots = null;
 		revRoots = null;
 	}
@@ -94,7 +117,7 @@ public class Graph {
 	 *         successors.
 	 */
 	public Collection reverseRoots() {
-		if ((roots == null) || (revRootEdgeModCount != edgeModCount)) {
+		if ((revRoots == null) || (revRootEdgeModCount != edgeModCount)) {
 			revRootEdgeModCount = edgeModCount;
 			revRoots = new ArrayList();
 			buildRootList(revRoots, true);
@@ -114,56 +137,74 @@ public class Graph {
 	 *            Do we make a reverse traversal of the graph?
 	 */
 	private void buildRootList(final Collection c, final boolean reverse) {
-		final HashSet visited = new HashSet(nodes.size() * 2);
-		final ArrayList stack = new ArrayList();
-
-		final Iterator iter = nodes.values().iterator();
+		final boolean[] visited = new boolean[tableSize];
+		final int[] stack = scratch();
 
-		while (iter.hasNext()) {
-			final GraphNode node = (GraphNode) iter.next();
+		for (int i = 0; i < tableSize; i++) {
+			if ((table[i] == null) || visited[i]) {
+				continue;
+			}
 
-			if (!visited.contains(node)) {
-				visited.add(node);
-				stack.add(node);
+			visited[i] = true;
+			stack[0] = i;
+			int top = 1;
 
-				while (!stack.isEmpty()) {
-					final GraphNode v = (GraphNode) stack
-							.remove(stack.size() - 1);
-					boolean pushed = false;
+			while (top > 0) {
+				final GraphNode v = table[stack[--top]];
+				boolean pushed = false;
 
-					final Iterator preds = reverse ? v.succs.iterator()
-							: v.preds.iterator();
+				final int[] preds = reverse ? v.succs : v.preds;
+				final int count = reverse ? v.succCount : v.predCount;
 
-					while (preds.hasNext()) {
-						final GraphNode w = (GraphNode) preds.next();
+				for (int j = 0; j < count; j++) {
+					final int w = preds[j];
 
-						if (!visited.contains(w)) {
-							visited.add(w);
-							stack.add(w);
-							pushed = true;
-						}
+					if (!visited[w]) {
+						visited[w] = true;
+						stack[top++] = w;
+						pushed = true;
 					}
+				}
 
-					if (!pushed) {
-						c.add(v);
-					}
+				if (!pushed) {
+					c.add(v);
 				}
 			}
 		}
 	}
 
+	/**
+	 * Returns the scratch stack, large enough to hold every node once.
+	 */
+	private int[] scratch() {
+		if (stack.length < tableSize) {
+			stack = new int[table.length];
+			cursors = new int[table.length];
+		}
+
+		return stack;
+	}
+
 	/**
 	 * Return the successors of a given node.
 	 */
 	public Collection succs(final GraphNode v) {
-		return new EdgeSet(v, v.succs);
+		if ((v.succSet == null) || (v.succSet.nodeModCount != nodeModCount)) {
+			v.succSet = new EdgeSet(v, true);
+		}
+
+		return v.succSet;
 	}
 
 	/**
 	 * Returns the predacessors of a given node.
 	 */
 	public Collection preds(final GraphNode v) {
-		return new EdgeSet(v, v.preds);
+		if ((v.predSet == null) || (v.predSet.nodeModCount != nodeModCount)) {
+			v.predSet = new EdgeSet(v, false);
+		}
+
+		return v.predSet;
 	}
 
 	/**
@@ -227,41 +268,70 @@ public class Graph {
 	}
 
 	/**
-	 * Constructs lists of nodes in both pre-order and post-order order.
+	 * Constructs lists of nodes in both pre-order and post-order order. The
+	 * nodes that cannot be reached from the roots are given an index of -1.
+	 * This information is used when removing unreachable nodes.
 	 */
 	private void buildLists() {
-		Iterator iter = roots().iterator();
+		final Iterator iter = roots().iterator();
+
+		final GraphNode[] pre = new GraphNode[tableSize];
+		final GraphNode[] post = new GraphNode[tableSize];
+		int preCount = 0;
+		int postCount = 0;
 
-		preOrder = new NodeList();
-		postOrder = new NodeList();
+		for (int i = 0; i < tableSize; i++) {
+			if (table[i] != null) {
+				table[i].setPreOrderIndex(-1);
+				table[i].setPostOrderIndex(-1);
+			}
+		}
 
-		final Set visited = new HashSet();
+		// Number the nodes depth-first. cursors[i] is the next successor to
+		// visit of the node at stack[i].
+		final int[] stack = scratch();
+		final int[] cursors = this.cursors;
 
-		// Calculate the indices of the nodes.
 		while (iter.hasNext()) {
 			final GraphNode root = (GraphNode) iter.next();
 
-			Assert.isTrue(nodes.containsValue(root), "Graph does not contain "
-					+ root);
-
-			number(root, visited);
-		}
+			Assert.isTrue(hasNode(root), "Graph does not contain " + root);
 
-		// Mark all nodes that were not numbered as having an index of -1. This
-		// information is used when removing unreachable nodes.
-		iter = nodes.values().iterator();
-
-		while (iter.hasNext()) {
-			final GraphNode node = (GraphNode) iter.next();
+			if (root.preOrderIndex() != -1) {
+				continue;
+			}
 
-			if (!visited.contains(node)) {
-				node.setPreOrderIndex(-1);
-				node.setPostOrderIndex(-1);
-			} else {
-				Assert.isTrue(node.preOrderIndex() >= 0);
-				Assert.isTrue(node.postOrderIndex() >= 0);
+			root.setPreOrderIndex(preCount);
+			pre[preCount++] = root;
+			stack[0] = root.id;
+			cursors[0] = 0;
+			int top = 1;
+
+			while (top > 0) {
+				final GraphNode v = table[stack[top - 1]];
+
+				if (cursors[top - 1] < v.succCount) {
+					final GraphNode succ = table[v.succs[cursors[top - 1]++]];
+
+					if (succ.preOrderIndex() == -1) {
+						// Visit in pre-order
+						succ.setPreOrderIndex(preCount);
+						pre[preCount++] = succ;
+						stack[top] = succ.id;
+						cursors[top] = 0;
+						top++;
+					}
+				} else {
+					// Visit in post-order
+					v.setPostOrderIndex(postCount);
+					post[postCount++] = v;
+					top--;
+				}
 			}
 		}
+
+		preOrder = new NodeList(pre, preCount);
+		postOrder = new NodeList(post, postCount);
 	}
 
 	/**
@@ -286,35 +356,6 @@ public class Graph {
 		}
 	}
 
-	/**
-	 * Sets the pre-order and post-order indices of a node.
-	 * 
-	 * @param node
-	 *            The node to number.
-	 * @param visited
-	 *            The nodes that have been visited already.
-	 */
-	private void number(final GraphNode node, final Set visited) {
-		visited.add(node);
-
-		// Visit in pre-order
-		node.setPreOrderIndex(preOrder.size());
-		preOrder.addNode(node);
-
-		final Iterator iter = succs(node).iterator();
-
-		while (iter.hasNext()) {
-			final GraphNode succ = (GraphNode) iter.next();
-			if (!visited.contains(succ)) {
-				number(succ, visited);
-			}
-		}
-
-		// Visit in post-order
-		node.setPostOrderIndex(postOrder.size());
-		postOrder.addNode(node);
-	}
-
 	/**
 	 * Insertes a node (and its associated key) into this Graph.
 	 * 
@@ -328,6 +369,22 @@ public class Graph {
 	// This method is NOT guaranteed to be called whenever a node is added.
 	public void addNode(final Object key, final GraphNode node) {
 		Assert.isTrue(nodes.get(key) == null);
+		Assert.isTrue(node.id == -1, node + " is already in a graph");
+
+		if (freeCount > 0) {
+			node.id = freeIds[--freeCount];
+		} else {
+			if (tableSize == table.length) {
+				final GraphNode[] a = new GraphNode[table.length * 2];
+				System.arraycopy(table, 0, a, 0, tableSize);
+				table = a;
+			}
+
+			node.id = tableSize++;
+		}
+
+		table[node.id] = node;
+
 		nodes.putNodeInMap(key, node);
 		preOrder = null;
 		postOrder = null;
@@ -374,6 +431,17 @@ public class Graph {
 			throw new RuntimeException();
 		}
 
+		// Free the node's id for the next node added
+		if (freeCount == freeIds.length) {
+			final int[] a = new int[Math.max(4, freeIds.length * 2)];
+			System.arraycopy(freeIds, 0, a, 0, freeCount);
+			freeIds = a;
+		}
+
+		freeIds[freeCount++] = node.id;
+		table[node.id] = null;
+		node.id = -1;
+
 		// Removing a node invalidates the orderings
 		preOrder = null;
 		postOrder = null;
@@ -392,10 +460,13 @@ public class Graph {
 	 */
 	// This method is NOT guaranteed to be called whenever an edge is added.
 	public void addEdge(final GraphNode v, final GraphNode w) {
-		Assert.isTrue(nodes.containsValue(v), "Graph does not contain " + v);
-		Assert.isTrue(nodes.containsValue(w), "Graph does not contain " + w);
+		Assert.isTrue(hasNode(v), "Graph does not contain " + v);
+		Assert.isTrue(hasNode(w), "Graph does not contain " + w);
+
+		if (link(v, w)) {
+			edgeModCount++;
+		}
 
-		succs(v).add(w);
 		edgeModCount++;
 	}
 
@@ -405,12 +476,13 @@ public class Graph {
 	// is called. An exception will be thrown if the edge is not present
 	// in the graph.
 	public void removeEdge(final GraphNode v, final GraphNode w) {
-		Assert.isTrue(nodes.containsValue(v), "Graph does not contain " + v);
-		Assert.isTrue(nodes.containsValue(w), "Graph does not contain " + w);
-		Assert.isTrue(v.succs().contains(w));
+		Assert.isTrue(hasNode(v), "Graph does not contain " + v);
+		Assert.isTrue(hasNode(w), "Graph does not contain " + w);
+		Assert.isTrue(GraphNode.indexOf(v.succs, v.succCount, w.id) >= 0);
 
 		if (removingEdge == 0) {
-			succs(v).remove(w);
+			unlink(v, w);
+			edgeModCount++;
 		} else if (removingEdge != 1) {
 			throw new RuntimeException();
 		}
@@ -418,17 +490,42 @@ public class Graph {
 		edgeModCount++;
 	}
 
+	/**
+	 * Adds an edge from v to w to the nodes' edge arrays, unless it is already
+	 * there.
+	 * 
+	 * @return True, if the edge was added.
+	 */
+	private boolean link(final GraphNode v, final GraphNode w) {
+		if (GraphNode.indexOf(v.succs, v.succCount, w.id) >= 0) {
+			return false;
+		}
+
+		v.addSucc(w.id);
+		w.addPred(v.id);
+		return true;
+	}
+
+	/**
+	 * Removes an edge from v to w from the nodes' edge arrays.
+	 */
+	private void unlink(final GraphNode v, final GraphNode w) {
+		v.removeSucc(w.id);
+		w.removePred(v.id);
+	}
+
 	public String toString() {
 		String s = "";
 
-		final Iterator iter = nodes.values().iterator();
+		for (int i = 0; i < tableSize; i++) {
+			final GraphNode node = table[i];
 
-		while (iter.hasNext()) {
-			final GraphNode node = (GraphNode) iter.next();
-			s += "[" + node;
-			s += " succs = " + node.succs();
-			s += " preds = " + node.preds();
-			s += "]\n";
+			if (node != null) {
+				s += "[" + node;
+				s += " succs = " + succs(node);
+				s += " preds = " + preds(node);
+				s += "]\n";
+			}
 		}
 
 		return s;
@@ -443,7 +540,7 @@ public class Graph {
 	 * @return True, if this Graphs contains v.
 	 */
 	public boolean hasNode(final GraphNode v) {
-		return nodes.containsValue(v);
+		return (v.id >= 0) && (v.id < tableSize) && (table[v.id] == v);
 	}
 
 	/**
@@ -457,9 +554,9 @@ public class Graph {
 	 * @return True, if an edge exists between nodes v and w.
 	 */
 	public boolean hasEdge(final GraphNode v, final GraphNode w) {
-		Assert.isTrue(nodes.containsValue(v), "Graph does not contain " + v);
-		Assert.isTrue(nodes.containsValue(w), "Graph does not contain " + w);
-		return succs(v).contains(w);
+		Assert.isTrue(hasNode(v), "Graph does not contain " + v);
+		Assert.isTrue(hasNode(w), "Graph does not contain " + w);
+		return GraphNode.indexOf(v.succs, v.succCount, w.id) >= 0;
 	}
 
 	/**
@@ -492,6 +589,11 @@ public class Graph {
 			map.put(key, value);
 		}
 
+		public boolean containsValue(final Object value) {
+			return (value instanceof GraphNode)
+					&& Graph.this.hasNode((GraphNode) value);
+		}
+
 		public Object remove(final Object key) {
 			final GraphNode v = (GraphNode) map.get(key);
 
@@ -603,151 +705,125 @@ public class Graph {
 	 * methods such as indexOf() and iterator(). A NodeList is used to store the
 	 * pre-order and post-order travsersals of the Graph.
 	 */
-	class NodeList extends ArrayList implements List {
-		int edgeModCount;
-
-		NodeList() {
-			super(Graph.this.size());
-			edgeModCount = Graph.this.edgeModCount;
-		}
-
-		boolean addNode(final GraphNode a) {
-			return super.add(a);
-		}
+	class NodeList extends AbstractList {
+		GraphNode[] nodes;
 
-		public void clear() {
-			throw new UnsupportedOperationException();
-		}
+		int size;
 
-		public boolean add(final Object a) {
-			throw new UnsupportedOperationException();
-		}
+		int edgeModCount;
 
-		public boolean remove(final Object a) {
-			throw new UnsupportedOperationException();
+		NodeList(final GraphNode[] nodes, final int size) {
+			this.nodes = nodes;
+			this.size = size;
+			edgeModCount = Graph.this.edgeModCount;
 		}
 
-		// This works only if each node is in the list at most once.
-		public int indexOf(final Object a) {
+		public Object get(final int index) {
 			if (edgeModCount != Graph.this.edgeModCount) {
 				throw new ConcurrentModificationException();
 			}
 
-			final GraphNode v = (GraphNode) a;
-
-			if (this == Graph.this.preOrder) {
-				return v.preOrderIndex();
+			if ((index < 0) || (index >= size)) {
+				throw new IndexOutOfBoundsException(index + " of " + size);
 			}
 
-			if (this == Graph.this.postOrder) {
-				return v.postOrderIndex();
-			}
-
-			return super.indexOf(a);
+			return nodes[index];
 		}
 
-		// This works only if each node is in the list at most once.
-		public int indexOf(final Object a, final int index) {
-			final int i = indexOf(a);
-
-			if (i >= index) {
-				return i;
-			}
+		public int size() {
+			return size;
+		}
 
-			return -1;
+		public boolean contains(final Object a) {
+			return indexOf(a) >= 0;
 		}
 
 		// This works only if each node is in the list at most once.
-		public int lastIndexOf(final Object a) {
+		public int indexOf(final Object a) {
 			if (edgeModCount != Graph.this.edgeModCount) {
 				throw new ConcurrentModificationException();
 			}
 
-			final GraphNode v = (GraphNode) a;
-
-			if (this == Graph.this.preOrder) {
-				return v.preOrderIndex();
+			if (!(a instanceof GraphNode)) {
+				return -1;
 			}
 
-			if (this == Graph.this.postOrder) {
-				return v.postOrderIndex();
-			}
+			final GraphNode v = (GraphNode) a;
 
-			return super.lastIndexOf(a);
-		}
+			int index = -1;
 
-		// This works only if each node is in the list at most once.
-		public int lastIndexOf(final Object a, final int index) {
-			final int i = indexOf(a);
+			if (this == Graph.this.preOrder) {
+				index = v.preOrderIndex();
+			} else if (this == Graph.this.postOrder) {
+				index = v.postOrderIndex();
+			}
 
-			if (i <= index) {
-				return i;
+			if ((index >= 0) && (index < size) && (nodes[index] == v)) {
+				return index;
 			}
 
 			return -1;
 		}
 
-		public Iterator iterator() {
-			if (Graph.this.edgeModCount != edgeModCount) {
-				throw new ConcurrentModificationException();
-			}
-
-			final Iterator iter = super.iterator();
-
-			return new Iterator() {
-				int edgeModCount = NodeList.this.edgeModCount;
-
-				Object last;
-
-				public boolean hasNext() {
-					if (Graph.this.edgeModCount != edgeModCount) {
-						throw new ConcurrentModificationException();
-					}
-
-					return iter.hasNext();
-				}
-
-				public Object next() {
-					if (Graph.this.edgeModCount != edgeModCount) {
-						throw new ConcurrentModificationException();
-					}
-
-					last = iter.next();
-					return last;
-				}
-
-				public void remove() {
-					throw new UnsupportedOperationException();
-				}
-			};
+		// This works only if each node is in the list at most once.
+		public int lastIndexOf(final Object a) {
+			return indexOf(a);
 		}
 	}
 
 	/**
-	 * A set of edges. Recall that a Set cannot contain duplicate entries.
+	 * A set of edges. Recall that a Set cannot contain duplicate entries. The
+	 * set is a view of the successor or predacessor array of a node, which
+	 * holds the edges in the order in which they were added.
 	 */
 	class EdgeSet extends AbstractSet {
 		GraphNode node;
 
-		Set set;
+		boolean succs; // Is this the set of the node's successors?
 
 		int nodeModCount;
 
 		/**
 		 * 
 		 */
-		public EdgeSet(final GraphNode node, final Set set) {
+		public EdgeSet(final GraphNode node, final boolean succs) {
 			this.node = node;
-			this.set = set;
+			this.succs = succs;
 			this.nodeModCount = Graph.this.nodeModCount;
 		}
 
+		private int[] ids() {
+			return succs ? node.succs : node.preds;
+		}
+
+		private int count() {
+			return succs ? node.succCount : node.predCount;
+		}
+
+		/**
+		 * Removes the edge between this set's node and a node v, notifying
+		 * the Graph first.
+		 */
+		private void removeEdge(final GraphNode v) {
+			removingEdge++;
+
+			if (succs) {
+				Graph.this.removeEdge(node, v);
+				Graph.this.unlink(node, v);
+			} else {
+				Graph.this.removeEdge(v, node);
+				Graph.this.unlink(v, node);
+			}
+
+			removingEdge--;
+		}
+
 		public int size() {
 			if (nodeModCount != Graph.this.nodeModCount) {
 				throw new ConcurrentModificationException();
 			}
 
-			return set.size();
+			return count();
 		}
 
 		/**
@@ -784,19 +860,12 @@ public class Graph {
 			}
 
 			Assert.isTrue(nodes.containsValue(a));
-			Assert.isTrue(nodes.containsValue(node));
+			Assert.isTrue(hasNode(node));
 
 			final GraphNode v = (GraphNode) a;
 
-			if (set.add(v)) {
+			if (succs ? link(node, v) : link(v, node)) {
 				Graph.this.edgeModCount++;
-
-				if (set == node.succs) {
-					v.preds.add(node);
-				} else {
-					v.succs.add(node);
-				}
-
 				return true;
 			}
 
@@ -808,25 +877,9 @@ public class Graph {
 				throw new ConcurrentModificationException();
 			}
 
-			final GraphNode v = (GraphNode) a;
-
-			if (set.contains(v)) {
+			if (contains(a)) {
 				Graph.this.edgeModCount++;
-
-				if (set == node.succs) {
-					removingEdge++;
-					Graph.this.removeEdge(node, v);
-					removingEdge--;
-					v.preds.remove(node);
-				} else {
-					removingEdge++;
-					Graph.this.removeEdge(v, node);
-					removingEdge--;
-					v.succs.remove(node);
-				}
-
-				set.remove(v);
-
+				removeEdge((GraphNode) a);
 				return true;
 			}
 
@@ -839,13 +892,9 @@ public class Graph {
 			}
 
 			Assert.isTrue(nodes.containsValue(a));
-			Assert.isTrue(nodes.containsValue(node));
+			Assert.isTrue(hasNode(node));
 
-			if (a instanceof GraphNode) {
-				return set.contains(a);
-			}
-
-			return false;
+			return GraphNode.indexOf(ids(), count(), ((GraphNode) a).id) >= 0;
 		}
 
 		public void clear() {
@@ -853,27 +902,20 @@ public class Graph {
 				throw new ConcurrentModificationException();
 			}
 
-			final Iterator iter = set.iterator();
+			final int count = count();
+			final int[] ids = new int[count];
+			System.arraycopy(ids(), 0, ids, 0, count);
 
-			while (iter.hasNext()) {
-				final GraphNode v = (GraphNode) iter.next();
+			for (int i = 0; i < count; i++) {
+				final GraphNode v = table[ids[i]];
 
-				if (set == node.succs) {
-					removingEdge++;
-					Graph.this.removeEdge(node, v);
-					removingEdge--;
-					v.preds.remove(node);
-				} else {
-					removingEdge++;
-					Graph.this.removeEdge(v, node);
-					removingEdge--;
-					v.succs.remove(node);
+				// A self loop is in both sets, and may already be gone
+				if (GraphNode.indexOf(ids(), count(), v.id) >= 0) {
+					removeEdge(v);
 				}
 			}
 
 			Graph.this.edgeModCount++;
-
-			set.clear();
 		}
 
 		public Iterator iterator() {
@@ -881,11 +923,11 @@ public class Graph {
 				throw new ConcurrentModificationException();
 			}
 
-			final Iterator iter = set.iterator();
-
 			return new Iterator() {
 				GraphNode last;
 
+				int cursor = 0;
+
 				int edgeModCount = Graph.this.edgeModCount;
 
 				int nodeModCount = EdgeSet.this.nodeModCount;
@@ -898,7 +940,7 @@ public class Graph {
 						throw new ConcurrentModificationException();
 					}
 
-					return iter.hasNext();
+					return cursor < count();
 				}
 
 				public Object next() {
@@ -908,14 +950,11 @@ public class Graph {
 					if (edgeModCount != Graph.this.edgeModCount) {
 						throw new ConcurrentModificationException();
 					}
+					if (cursor >= count()) {
+						throw new NoSuchElementException();
+					}
 
-					last = (GraphNode) iter.next();
-
-					Assert.isTrue(nodes.containsValue(last), last
-							+ " not found in graph");
-					Assert.isTrue(nodes.containsValue(node), node
-							+ " not found in graph");
-
+					last = table[ids()[cursor++]];
 					return last;
 				}
 
@@ -926,23 +965,16 @@ public class Graph {
 					if (edgeModCount != Graph.this.edgeModCount) {
 						throw new ConcurrentModificationException();
 					}
-
-					if (set == node.succs) {
-						removingEdge++;
-						Graph.this.removeEdge(node, last);
-						removingEdge--;
-						last.preds.remove(node);
-					} else {
-						removingEdge++;
-						Graph.this.removeEdge(last, node);
-						removingEdge--;
-						last.succs.remove(node);
+					if (last == null) {
+						throw new IllegalStateException();
 					}
 
+					removeEdge(last);
+					last = null;
+					cursor--;
+
 					Graph.this.edgeModCount++;
 					edgeModCount = Graph.this.edgeModCount;
-
-					iter.remove();
 				}
 			};
 		}
@@ -20,20 +20,34 @@
 
 package io.rsbox.deobfuscator.asm.util;
 
-import java.util.*;
-
 /**
  * GraphNode represents a node in a Graph. Each node has a set of predacessors
  * and successors associated with it as well as a pre-order and post-order
  * traversal index. This information is maintained by the Graph in which the
  * GraphNode resides.
  * 
+ * While it is in a Graph, a node has a dense integer id, and its successors
+ * and predacessors are stored as arrays of the ids of those nodes in the order
+ * in which the edges were added. A node may only be in one Graph at a time.
+ * 
  * @see Graph
  */
 public abstract class GraphNode {
-	protected HashSet succs;
+	static final int[] EMPTY = new int[0];
+
+	int id; // Index in the Graph's node table, -1 if not in a Graph
+
+	int[] succs;
+
+	int succCount;
+
+	int[] preds;
 
-	protected HashSet preds;
+	int predCount;
+
+	Graph.EdgeSet succSet; // Views of the edge arrays, see Graph#succs
+
+	Graph.EdgeSet predSet;
 
 	protected int preIndex;
 
@@ -43,8 +57,9 @@ public abstract class GraphNode {
 	 * Constructor.
 	 */
 	public GraphNode() {
-		succs = new HashSet();
-		preds = new HashSet();
+		id = -1;
+		succs = GraphNode.EMPTY;
+		preds = GraphNode.EMPTY;
 		preIndex = -1;
 		postIndex = -1;
 	}
@@ -74,16 +89,62 @@ public abstract class GraphNode {
 	}
 
 	/**
-	 * Returns the successor (or children) nodes of this GraphNode.
+	 * Returns the position of the node with a given id in an id array, or -1
+	 * if it is not there.
 	 */
-	protected Collection succs() {
-		return succs;
+	static int indexOf(final int[] ids, final int count, final int id) {
+		for (int i = 0; i < count; i++) {
+			if (ids[i] == id) {
+				return i;
+			}
+		}
+
+		return -1;
+	}
+
+	void addSucc(final int id) {
+		if (succCount == succs.length) {
+			succs = GraphNode.grow(succs);
+		}
+
+		succs[succCount++] = id;
+	}
+
+	void addPred(final int id) {
+		if (predCount == preds.length) {
+			preds = GraphNode.grow(preds);
+		}
+
+		preds[predCount++] = id;
+	}
+
+	void removeSucc(final int id) {
+		succCount = GraphNode.remove(succs, succCount, id);
+	}
+
+	void removePred(final int id) {
+		predCount = GraphNode.remove(preds, predCount, id);
+	}
+
+	private static int[] grow(final int[] ids) {
+		final int[] a = new int[Math.max(4, ids.length * 2)];
+		System.arraycopy(ids, 0, a, 0, ids.length);
+		return a;
 	}
 
 	/**
-	 * Returns the predacessor (or parent) nodes of this GraphNode.
+	 * Removes an id from an id array, keeping the other ids in order.
+	 * 
+	 * @return The new number of ids in the array.
 	 */
-	protected Collection preds() {
-		return preds;
+	private static int remove(final int[] ids, final int count, final int id) {
+		final int i = GraphNode.indexOf(ids, count, id);
+
+		if (i < 0) {
+			return count;
+		}
+
+		System.arraycopy(ids, i + 1, ids, i, count - i - 1);
+		return count - 1;
 	}
 }
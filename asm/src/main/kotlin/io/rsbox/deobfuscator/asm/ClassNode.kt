@@ -3,11 +3,11 @@ package io.rsbox.deobfuscator.asm
 import io.rsbox.deobfuscator.asm.cfg.FlowGraph
 import io.rsbox.deobfuscator.asm.editor.ClassEditor
 import io.rsbox.deobfuscator.asm.reflect.ClassInfo
-import io.rsbox.deobfuscator.asm.util.field
-import io.rsbox.deobfuscator.asm.util.nullField
+import io.rsbox.deobfuscator.asm.util.MemberList
 import org.objectweb.asm.ClassWriter
 import org.objectweb.asm.Type
 import org.objectweb.asm.tree.ClassNode
+import org.objectweb.asm.tree.FieldNode
 import org.objectweb.asm.tree.MethodNode
 
 internal fun ClassNode.init(pool: ClassPool) {
@@ -16,57 +16,114 @@ internal fun ClassNode.init(pool: ClassPool) {
     fields.forEach { it.init(this) }
 }
 
+/*
+ * Drops the BLOAT state of the class and its members, which is created again the next
+ * time it is needed.
+ */
 internal fun ClassNode.reset() {
-    superClass = null
-    childClasses.clear()
-    interfaceClasses.clear()
-    implementerClasses.clear()
+    node.info = null
+    node.editor = null
 
     methods.forEach { it.reset() }
     fields.forEach { it.reset() }
 }
 
 internal fun ClassNode.build() {
-    /*
-     * Build class hierarchy
-     */
-    superClass = pool.findClass(superName)
-    if(superClass != null) {
-        superClass!!.childClasses.add(this)
-    }
+    (methods as? MemberList)?.reindex()
+    (fields as? MemberList)?.reindex()
+
+    methods.forEach { it.build() }
+    fields.forEach { it.build() }
+}
+
+internal val ClassNode.parentNames: List<String> get() = listOfNotNull(superName) + interfaces
+
+internal fun ClassNode.linkParents() {
+    superClass = superName?.let { pool.findClass(it) }
+    superClass?.childClasses?.add(this)
 
     interfaces.mapNotNull { pool.findClass(it) }.forEach { interf ->
         interfaceClasses.add(interf)
         interf.childClasses.add(this)
     }
+}
 
-    info = pool.loader.loadClass(name)
-    editor = pool.context.editClass(info)
+internal fun ClassNode.unlinkParents() {
+    superClass?.childClasses?.remove(this)
+    interfaceClasses.forEach { it.childClasses.remove(this) }
 
-    methods.forEach { it.build() }
-    fields.forEach { it.build() }
+    superClass = null
+    interfaceClasses.clear()
 }
 
-var ClassNode.pool: ClassPool by field()
+private val ClassNode.node get() = this as PoolClassNode
+
+var ClassNode.pool: ClassPool
+    get() = node.pool
+    set(value) { node.pool = value }
 
-var ClassNode.superClass: ClassNode? by nullField()
-val ClassNode.childClasses: MutableList<ClassNode> by field { mutableListOf() }
-val ClassNode.interfaceClasses: MutableList<ClassNode> by field { mutableListOf() }
-val ClassNode.implementerClasses: MutableList<ClassNode> by field { mutableListOf() }
+var ClassNode.superClass: ClassNode?
+    get() = node.superClass
+    set(value) { node.superClass = value }
+
+val ClassNode.childClasses: MutableList<ClassNode> get() = node.childClasses
+val ClassNode.interfaceClasses: MutableList<ClassNode> get() = node.interfaceClasses
+val ClassNode.implementerClasses: MutableList<ClassNode> get() = node.implementerClasses
 
 val ClassNode.identifier get() = name
 val ClassNode.type get() = Type.getObjectType(name)
 
-var ClassNode.info: ClassInfo by field()
-var ClassNode.editor: ClassEditor by field()
+/**
+ * The BLOAT view of this class, loaded the first time it is needed after the class changed.
+ */
+var ClassNode.info: ClassInfo
+    get() = node.info ?: pool.loader.loadClass(name).also { node.info = it }
+    set(value) { node.info = value }
 
-fun ClassNode.getMethod(name: String, desc: String) = methods.firstOrNull { it.name == name && it.desc == desc }
-fun ClassNode.getField(name: String, desc: String) = fields.firstOrNull { it.name == name && it.desc == desc }
+var ClassNode.editor: ClassEditor
+    get() = node.editor ?: pool.context.editClass(info).also { node.editor = it }
+    set(value) { node.editor = value }
+
+fun ClassNode.getMethod(name: String, desc: String): MethodNode? {
+    val methods = methods
+    if(methods is MemberList) {
+        return methods.find(name, desc)
+    }
+    return methods.firstOrNull { it.name == name && it.desc == desc }
+}
+
+fun ClassNode.getField(name: String, desc: String): FieldNode? {
+    val fields = fields
+    if(fields is MemberList) {
+        return fields.find(name, desc)
+    }
+    return fields.firstOrNull { it.name == name && it.desc == desc }
+}
+
+/**
+ * Finds the field a field instruction on this class refers to, searching the interfaces
+ * and then the super classes the same way the JVM resolves field references.
+ */
+fun ClassNode.resolveField(name: String, desc: String): FieldNode? {
+    getField(name, desc)?.let { return it }
+    interfaceClasses.forEach { interf ->
+        interf.resolveField(name, desc)?.let { return it }
+    }
+    return superClass?.resolveField(name, desc)
+}
 
 fun ClassNode.isIgnored() = pool.getIgnoredClass(name) != null
 
-fun ClassNode.toByteArray(): ByteArray {
-    val writer = ClassWriter(ClassWriter.COMPUTE_MAXS)
+/**
+ * Serializes this class. Stack map frames are only written when [computeFrames] is set, in which
+ * case they are computed against the class hierarchy of the pool.
+ */
+fun ClassNode.toByteArray(computeFrames: Boolean = false): ByteArray {
+    val writer = if(computeFrames) {
+        PoolClassWriter(pool, ClassWriter.COMPUTE_FRAMES)
+    } else {
+        ClassWriter(ClassWriter.COMPUTE_MAXS)
+    }
     this.accept(writer)
     return writer.toByteArray()
 }
\ No newline at end of file
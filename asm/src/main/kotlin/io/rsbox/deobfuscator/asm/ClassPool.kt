@@ -1,16 +1,22 @@
 package io.rsbox.deobfuscator.asm
 
+import io.rsbox.deobfuscator.asm.analysis.AnalysisCache
 import io.rsbox.deobfuscator.asm.context.CachingBloatContext
 import io.rsbox.deobfuscator.asm.editor.ClassHierarchy
 import io.rsbox.deobfuscator.asm.file.ClassNodeFileLoader
+import io.rsbox.deobfuscator.asm.file.JarWriter
+import io.rsbox.deobfuscator.asm.file.MappedJarFile
 import io.rsbox.deobfuscator.asm.reflect.ClassInfo
+import io.rsbox.deobfuscator.asm.util.DisjointSet
 import org.objectweb.asm.ClassReader
 import org.objectweb.asm.tree.ClassNode
+import org.objectweb.asm.tree.FieldNode
+import org.objectweb.asm.tree.MethodNode
 import java.io.File
-import java.io.FileOutputStream
-import java.util.jar.JarEntry
-import java.util.jar.JarFile
-import java.util.jar.JarOutputStream
+import java.util.Collections
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.Executor
+import java.util.stream.Collectors
 
 class ClassPool {
 
@@ -20,43 +26,140 @@ class ClassPool {
     internal val loader = ClassNodeFileLoader(this)
     internal val context = CachingBloatContext(loader, listOf<ClassInfo>(), false)
 
+    val analysis = AnalysisCache()
+
+    /*
+     * Classes which extend or implement a class not in the pool, by the name of that class.
+     * They are linked to it as soon as it is added.
+     */
+    private val pendingChildren = hashMapOf<String, MutableSet<ClassNode>>()
+
+    @Volatile private var virtualMethodSet: DisjointSet<MethodNode>? = null
+    @Volatile private var virtualFieldSet: DisjointSet<FieldNode>? = null
+
+    /**
+     * The methods and fields of the pool, partitioned by override and inheritance.
+     * They are computed the first time they are needed after the pool changed.
+     */
+    val virtualMethods: DisjointSet<MethodNode> get() {
+        return virtualMethodSet ?: synchronized(this) {
+            virtualMethodSet ?: buildVirtualMethods(allClasses).also { virtualMethodSet = it }
+        }
+    }
+
+    val virtualFields: DisjointSet<FieldNode> get() {
+        return virtualFieldSet ?: synchronized(this) {
+            virtualFieldSet ?: buildVirtualFields(allClasses).also { virtualFieldSet = it }
+        }
+    }
+
     init {
         ClassHierarchy.RELAX = true
     }
 
-    val classes get() = classMap.values.toList()
-    val ignoredClasses get() = ignoredClassMap.values.toList()
+    /**
+     * Read only views of the classes in the pool. They are not copies, so the pool must not
+     * be changed while iterating over them.
+     */
+    val classes: Collection<ClassNode> = Collections.unmodifiableCollection(classMap.values)
+    val ignoredClasses: Collection<ClassNode> = Collections.unmodifiableCollection(ignoredClassMap.values)
 
-    fun addClass(node: ClassNode) {
-        node.init(this)
-        classMap[node.name] = node
+    private val allClasses get() = classes + ignoredClasses
+
+    /**
+     * Adds a class to the pool, replacing any class of the same name. Nodes which are not a
+     * [PoolClassNode] are copied into one, so the node stored in the pool is returned.
+     */
+    fun addClass(node: ClassNode): ClassNode {
+        val cls = node as? PoolClassNode ?: PoolClassNode().also { node.accept(it) }
+        findClass(cls.name)?.let { removeClass(it) }
+
+        cls.init(this)
+        classMap[cls.name] = cls
+        linkParents(cls)
+        pendingChildren.remove(cls.name)?.forEach { child ->
+            unlinkParents(child)
+            linkParents(child)
+        }
+        invalidateVirtuals()
+        return cls
     }
 
     fun removeClass(node: ClassNode) {
-        classMap.remove(node.name)
-        ignoredClassMap.remove(node.name)
+        val cls = classMap.remove(node.name) ?: ignoredClassMap.remove(node.name) ?: return
+        unlinkParents(cls)
+        cls.childClasses.toList().forEach { child ->
+            unlinkParents(child)
+            linkParents(child)
+        }
+        invalidateVirtuals()
     }
 
+    /**
+     * Replaces the contents of a pool class with the given bytes, keeping the node itself.
+     * The [info] the bytes were written from, if any, is kept as the class's BLOAT view.
+     */
+    internal fun reloadClass(cls: PoolClassNode, bytes: ByteArray, info: ClassInfo?) {
+        unlinkParents(cls)
+        cls.reload(bytes)
+        cls.info = info
+        linkParents(cls)
+        invalidateVirtuals()
+    }
 
-    fun addClass(bytes: ByteArray) {
-        val node = ClassNode()
-        val reader = ClassReader(bytes)
-        reader.accept(node, ClassReader.SKIP_FRAMES)
-        addClass(node)
+    private fun linkParents(cls: ClassNode) {
+        cls.linkParents()
+        cls.parentNames.forEach { name ->
+            if(findClass(name) == null) {
+                pendingChildren.getOrPut(name) { linkedSetOf() }.add(cls)
+            }
+        }
     }
 
-    fun addJarClasses(file: File) {
-        JarFile(file).use { jar ->
-            jar.entries().asSequence().forEach { entry ->
-                if(entry.name.endsWith(".class")) {
-                    addClass(jar.getInputStream(entry).readAllBytes())
-                }
+    private fun unlinkParents(cls: ClassNode) {
+        cls.unlinkParents()
+        cls.parentNames.forEach { name ->
+            val children = pendingChildren[name] ?: return@forEach
+            children.remove(cls)
+            if(children.isEmpty()) {
+                pendingChildren.remove(name)
             }
         }
     }
 
+    private fun invalidateVirtuals() {
+        virtualMethodSet = null
+        virtualFieldSet = null
+    }
+
+
+    fun addClass(bytes: ByteArray): ClassNode {
+        return addClass(readClass(bytes))
+    }
+
+    fun addJarClasses(file: File) {
+        /*
+         * Inflate and parse the entries in parallel, then add them to the pool
+         * in jar order on this thread.
+         */
+        val nodes = MappedJarFile(file).use { jar ->
+            jar.entries.filter { it.name.endsWith(".class") }
+                .parallelStream()
+                .map { readClass(jar.read(it)) }
+                .collect(Collectors.toList())
+        }
+        nodes.forEach { addClass(it) }
+    }
+
+    private fun readClass(bytes: ByteArray): ClassNode {
+        val node = PoolClassNode()
+        val reader = ClassReader(bytes)
+        reader.accept(node, ClassReader.SKIP_FRAMES)
+        return node
+    }
+
     fun ignoreClass(node: ClassNode) {
-        if(ignoredClasses.contains(node)) {
+        if(ignoredClassMap[node.name] === node) {
             throw IllegalArgumentException("Class ${node.name} is already ignored.")
         }
         classMap.remove(node.name)
@@ -64,20 +167,59 @@ class ClassPool {
     }
 
     fun unignoreClass(node: ClassNode) {
-        if(!ignoredClasses.contains(node)) {
+        if(ignoredClassMap[node.name] !== node) {
             throw IllegalArgumentException("Class ${node.name} is not ignored.")
         }
         ignoredClassMap.remove(node.name)
         classMap[node.name] = node
     }
 
+    /**
+     * Ignores every class which matches the given predicate, and returns how many were ignored.
+     */
+    fun ignoreWhere(predicate: (ClassNode) -> Boolean): Int {
+        var count = 0
+        val iterator = classMap.values.iterator()
+        while(iterator.hasNext()) {
+            val cls = iterator.next()
+            if(predicate(cls)) {
+                iterator.remove()
+                ignoredClassMap[cls.name] = cls
+                count++
+            }
+        }
+        return count
+    }
+
+    /**
+     * Stops ignoring every ignored class which matches the given predicate, and returns how
+     * many were unignored.
+     */
+    fun unignoreWhere(predicate: (ClassNode) -> Boolean): Int {
+        var count = 0
+        val iterator = ignoredClassMap.values.iterator()
+        while(iterator.hasNext()) {
+            val cls = iterator.next()
+            if(predicate(cls)) {
+                iterator.remove()
+                classMap[cls.name] = cls
+                count++
+            }
+        }
+        return count
+    }
+
+    /**
+     * Marks the contents of every class as changed. The class hierarchy is always kept up
+     * to date as classes are added and removed, so this only drops the state derived from
+     * the members and code of the classes, which is created again when it is next needed.
+     */
     fun build() {
-        val allClasses = mutableListOf<ClassNode>().also {
-            it.addAll(classes)
-            it.addAll(ignoredClasses)
+        allClasses.forEach {
+            it.reset()
+            it.build()
         }
-        allClasses.forEach { it.reset() }
-        allClasses.forEach { it.build() }
+        invalidateVirtuals()
     }
 
     fun getClass(name: String) = classMap[name]
@@ -87,20 +229,38 @@ class ClassPool {
     fun clear() {
         classMap.clear()
         ignoredClassMap.clear()
+        pendingChildren.clear()
+        invalidateVirtuals()
+        analysis.clear()
     }
 
-    fun saveToJar(file: File) {
+    /**
+     * Saves every class to the given jar, with stack map frames if [computeFrames] is set.
+     * Classes are serialized and compressed on the given [executor], or on the calling thread
+     * if there is none.
+     */
+    fun saveToJar(file: File, computeFrames: Boolean = false, executor: Executor? = null) {
         if(file.exists()) file.deleteRecursively()
-        JarOutputStream(FileOutputStream(file)).use { jos ->
-            val allClasses = mutableListOf<ClassNode>().also {
-                it.addAll(classes)
-                it.addAll(ignoredClasses)
-            }
-            allClasses.forEach { cls ->
-                jos.putNextEntry(JarEntry(cls.name + ".class"))
-                jos.write(cls.toByteArray())
-                jos.closeEntry()
+        if(executor == null) {
+            JarWriter(file).use { writer ->
+                allClasses.forEach { cls ->
+                    writer.write(JarWriter.compress(cls.name + ".class", cls.toByteArray(computeFrames)))
+                }
             }
+            return
+        }
+
+        /*
+         * Serialize and compress the classes in parallel. The writer takes each result
+         * in order as soon as it is ready, so the entry order stays deterministic.
+         */
+        val entries = allClasses.map { cls ->
+            CompletableFuture.supplyAsync({
+                JarWriter.compress(cls.name + ".class", cls.toByteArray(computeFrames))
+            }, executor)
+        }
+        JarWriter(file).use { writer ->
+            entries.forEach { writer.write(it.join()) }
         }
     }
 
@@ -5,8 +5,8 @@ import io.rsbox.deobfuscator.asm.editor.MemberRef
 import io.rsbox.deobfuscator.asm.editor.NameAndType
 import io.rsbox.deobfuscator.asm.editor.Type
 import io.rsbox.deobfuscator.asm.reflect.FieldInfo
-import io.rsbox.deobfuscator.asm.util.field
-import io.rsbox.deobfuscator.asm.util.nullField
+import io.rsbox.deobfuscator.asm.util.DisjointSet
+import io.rsbox.deobfuscator.asm.util.ForestDisjointSet
 import org.objectweb.asm.Opcodes.ACC_ABSTRACT
 import org.objectweb.asm.Opcodes.ACC_STATIC
 import org.objectweb.asm.tree.ClassNode
@@ -17,10 +17,16 @@ internal fun FieldNode.init(owner: ClassNode) {
     this.owner = owner
 }
 
-internal fun FieldNode.reset() {}
+internal fun FieldNode.reset() {
+    node.editor = null
+}
 internal fun FieldNode.build() {}
 
-var FieldNode.owner: ClassNode by field()
+private val FieldNode.node get() = this as PoolFieldNode
+
+var FieldNode.owner: ClassNode
+    get() = node.owner
+    set(value) { node.owner = value }
 val FieldNode.pool get() = owner.pool
 
 val FieldNode.identifier get() = "${owner.identifier}.$name"
@@ -29,61 +35,45 @@ val FieldNode.type get() = Type.getType(desc)
 fun FieldNode.isStatic() = (access and ACC_STATIC) != 0
 fun FieldNode.isAbstract() = (access and ACC_ABSTRACT) != 0
 
-private var FieldNode._editor: FieldEditor? by nullField()
 val FieldNode.info: FieldInfo get() = editor.fieldInfo()
 val FieldNode.editor: FieldEditor get() {
-    if(_editor == null) {
-        _editor = pool.context.editField(MemberRef(owner.editor.type(), NameAndType(name, TypeRef.getType(desc))))
+    return node.editor ?: pool.context.editField(MemberRef(owner.editor.type(), NameAndType(name, TypeRef.getType(desc)))).also {
+        node.editor = it
     }
-    return _editor!!
 }
 
+/**
+ * Every field which shadows or is shadowed by this field, including itself.
+ * Computed for the whole pool the first time it is needed after the pool changed.
+ */
 val FieldNode.virtualFields: List<FieldNode> get() {
-    val ret = mutableListOf<FieldNode>()
-    if(isStatic()) {
-        ret.add(this)
-        return ret
-    }
-
-    findBaseFields(mutableListOf(), owner, name, desc).forEach {
-        findInheritedFields(ret, mutableListOf(), it.owner, it.name, it.desc)
-    }
-
-    return ret
+    pool.virtualFields
+    return node.virtualFields ?: throw IllegalStateException("Virtual fields of $identifier have not been built.")
 }
 
-private fun findBaseFields(fields: MutableList<FieldNode>, cls: ClassNode?, name: String, desc: String): MutableList<FieldNode> {
-    if(cls == null) {
-        return fields
+internal fun buildVirtualFields(classes: Collection<ClassNode>): DisjointSet<FieldNode> {
+    val set = ForestDisjointSet<FieldNode>()
+    classes.forEach { cls ->
+        cls.fields.forEach { set.add(it) }
     }
 
-    val f = cls.getField(name, desc)
-    if(f != null && !f.isStatic()) {
-        fields.add(f)
+    classes.forEach { cls ->
+        cls.fields.filter { !it.isStatic() }.forEach { field ->
+            var parent = cls.superClass
+            while(parent != null) {
+                val f = parent.getField(field.name, field.desc)
+                if(f != null && !f.isStatic()) {
+                    set.union(set[field]!!, set[f]!!)
+                    break
+                }
+                parent = parent.superClass
+            }
+        }
     }
 
-    val parentFields = findBaseFields(mutableListOf(), cls.superClass, name, desc)
-    return if(parentFields.isEmpty()) fields else parentFields
-}
-
-private fun findInheritedFields(
-    fields: MutableList<FieldNode>,
-    visited: MutableList<ClassNode>,
-    cls: ClassNode?,
-    name: String,
-    desc: String
-) {
-    if(cls == null || visited.contains(cls)) {
-        return
-    }
-    visited.add(cls)
-
-    val f = cls.getField(name, desc)
-    if(f != null && !f.isStatic()) {
-        fields.add(f)
+    set.forEach { partition ->
+        val fields = partition.toList()
+        fields.forEach { it.node.virtualFields = fields }
     }
-
-    cls.childClasses.forEach {
-        findInheritedFields(fields, visited, it, name, desc)
-    }
-}
\ No newline at end of file
+    return set
+}
@@ -4,8 +4,8 @@ import io.rsbox.deobfuscator.asm.cfg.FlowGraph
 import io.rsbox.deobfuscator.asm.editor.MemberRef
 import io.rsbox.deobfuscator.asm.editor.MethodEditor
 import io.rsbox.deobfuscator.asm.editor.NameAndType
-import io.rsbox.deobfuscator.asm.util.field
-import io.rsbox.deobfuscator.asm.util.nullField
+import io.rsbox.deobfuscator.asm.util.DisjointSet
+import io.rsbox.deobfuscator.asm.util.ForestDisjointSet
 import org.objectweb.asm.Opcodes.*
 import org.objectweb.asm.Type
 import org.objectweb.asm.tree.ClassNode
@@ -16,10 +16,17 @@ internal fun MethodNode.init(owner: ClassNode) {
     this.owner = owner
 }
 
-internal fun MethodNode.reset() {}
+internal fun MethodNode.reset() {
+    node.editor = null
+    node.cfg = null
+}
 internal fun MethodNode.build() {}
 
-var MethodNode.owner: ClassNode by field()
+private val MethodNode.node get() = this as PoolMethodNode
+
+var MethodNode.owner: ClassNode
+    get() = node.owner
+    set(value) { node.owner = value }
 val MethodNode.pool get() = owner.pool
 
 val MethodNode.identifier get() = "${owner.identifier}.$name$desc"
@@ -31,72 +38,60 @@ fun MethodNode.isStatic() = (access and ACC_STATIC) != 0
 fun MethodNode.isInterface() = (access and ACC_INTERFACE) != 0
 fun MethodNode.isAbstract() = (access and ACC_ABSTRACT) != 0
 
-private var MethodNode._editor: MethodEditor? by nullField()
 val MethodNode.info get() = editor.methodInfo()
 val MethodNode.editor: MethodEditor get() {
-    if(_editor == null) {
-        _editor = pool.context.editMethod(MemberRef(owner.editor.type(), NameAndType(name, TypeRef.getType(desc))))
+    return node.editor ?: pool.context.editMethod(MemberRef(owner.editor.type(), NameAndType(name, TypeRef.getType(desc)))).also {
+        node.editor = it
     }
-    return _editor!!
 }
 
-private var MethodNode._cfg: FlowGraph? by nullField()
 val MethodNode.cfg: FlowGraph get() {
-    if(_cfg == null) {
-        _cfg = FlowGraph(editor)
-        _cfg!!.initialize()
+    return node.cfg ?: FlowGraph(editor).also {
+        it.initialize()
+        node.cfg = it
     }
-    return _cfg!!
 }
 
+/**
+ * Every method which overrides or is overridden by this method, including itself.
+ * Computed for the whole pool the first time it is needed after the pool changed.
+ */
 val MethodNode.virtualMethods: List<MethodNode> get() {
-    val ret = mutableListOf<MethodNode>()
-    if(isStatic()) {
-        ret.add(this)
-        return ret
-    }
-
-    findBaseMethods(mutableListOf(), owner, name, desc).forEach {
-        findInheritedMethods(ret, mutableSetOf(), it.owner, it.name, it.desc)
-    }
-
-    return ret
+    pool.virtualMethods
+    return node.virtualMethods ?: throw IllegalStateException("Virtual methods of $identifier have not been built.")
 }
 
-private fun findBaseMethods(methods: MutableList<MethodNode>, cls: ClassNode?, name: String, desc: String): MutableList<MethodNode> {
-    if(cls == null) {
-        return methods
+internal fun buildVirtualMethods(classes: Collection<ClassNode>): DisjointSet<MethodNode> {
+    val set = ForestDisjointSet<MethodNode>()
+    classes.forEach { cls ->
+        cls.methods.forEach { set.add(it) }
     }
 
-    val m = cls.getMethod(name, desc)
-    if(m != null && !m.isStatic()) {
-        methods.add(m)
+    classes.forEach { cls ->
+        cls.methods.filter { !it.isStatic() }.forEach { method ->
+            unionBaseMethods(set, method, cls)
+        }
     }
 
-    val parentMethods = findBaseMethods(mutableListOf(), cls.superClass, name, desc)
-    cls.interfaceClasses.forEach { parentMethods.addAll(findBaseMethods(mutableListOf(), it, name, desc)) }
-
-    return if(parentMethods.isEmpty()) methods else parentMethods
-}
-
-private fun findInheritedMethods(
-    methods: MutableList<MethodNode>,
-    visited: MutableSet<ClassNode>,
-    cls: ClassNode? ,
-    name: String,
-    desc: String
-) {
-    if(cls == null || visited.contains(cls)) {
-        return
-    }
-    visited.add(cls)
-
-    val m = cls.getMethod(name, desc)
-    if(m != null && !m.isStatic()) {
-        methods.add(m)
+    set.forEach { partition ->
+        val methods = partition.toList()
+        methods.forEach { it.node.virtualMethods = methods }
     }
+    return set
+}
 
-    cls.childClasses.forEach {
-        findInheritedMethods(methods, visited, it, name, desc)
+/*
+ * Each parent's declaration is already joined with its own base methods, so the walk up
+ * each path can stop at the nearest declaring class.
+ */
+private fun unionBaseMethods(set: DisjointSet<MethodNode>, method: MethodNode, cls: ClassNode) {
+    val parents = listOfNotNull(cls.superClass) + cls.interfaceClasses
+    parents.forEach { parent ->
+        val m = parent.getMethod(method.name, method.desc)
+        if(m != null && !m.isStatic()) {
+            set.union(set[method]!!, set[m]!!)
+        } else {
+            unionBaseMethods(set, method, parent)
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,89 @@
+package io.rsbox.deobfuscator.asm
+
+import io.rsbox.deobfuscator.asm.editor.ClassEditor
+import io.rsbox.deobfuscator.asm.reflect.ClassInfo
+import io.rsbox.deobfuscator.asm.util.MemberList
+import org.objectweb.asm.ClassReader
+import org.objectweb.asm.FieldVisitor
+import org.objectweb.asm.MethodVisitor
+import org.objectweb.asm.Opcodes.ASM9
+import org.objectweb.asm.tree.ClassNode
+
+/**
+ * The [ClassNode] created for every class in a [ClassPool]. The pool's attributes are stored
+ * directly on the node, and reading a class with it creates [PoolMethodNode]s and [PoolFieldNode]s.
+ */
+class PoolClassNode : ClassNode(ASM9) {
+
+    internal lateinit var pool: ClassPool
+
+    internal var superClass: ClassNode? = null
+    internal val childClasses = mutableListOf<ClassNode>()
+    internal val interfaceClasses = mutableListOf<ClassNode>()
+    internal val implementerClasses = mutableListOf<ClassNode>()
+
+    internal var info: ClassInfo? = null
+    internal var editor: ClassEditor? = null
+
+    init {
+        methods = MemberList({ it.name }, { it.desc })
+        fields = MemberList({ it.name }, { it.desc })
+    }
+
+    /**
+     * Replaces the contents of this node with the class read from the given bytes, so the
+     * node itself stays the one the pool and any transformer refer to.
+     */
+    internal fun reload(bytes: ByteArray) {
+        interfaces.clear()
+        innerClasses.clear()
+        methods.clear()
+        fields.clear()
+        signature = null
+        sourceFile = null
+        sourceDebug = null
+        module = null
+        outerClass = null
+        outerMethod = null
+        outerMethodDesc = null
+        visibleAnnotations = null
+        invisibleAnnotations = null
+        visibleTypeAnnotations = null
+        invisibleTypeAnnotations = null
+        attrs = null
+        nestHostClass = null
+        nestMembers = null
+        permittedSubclasses = null
+        recordComponents = null
+
+        info = null
+        editor = null
+
+        ClassReader(bytes).accept(this, ClassReader.SKIP_FRAMES)
+        init(pool)
+    }
+
+    override fun visitMethod(
+        access: Int,
+        name: String,
+        descriptor: String,
+        signature: String?,
+        exceptions: Array<String>?
+    ): MethodVisitor {
+        val method = PoolMethodNode(access, name, descriptor, signature, exceptions)
+        methods.add(method)
+        return method
+    }
+
+    override fun visitField(
+        access: Int,
+        name: String,
+        descriptor: String,
+        signature: String?,
+        value: Any?
+    ): FieldVisitor {
+        val field = PoolFieldNode(access, name, descriptor, signature, value)
+        fields.add(field)
+        return field
+    }
+}
@@ -0,0 +1,78 @@
+package io.rsbox.deobfuscator.asm
+
+import org.objectweb.asm.ClassWriter
+import org.objectweb.asm.Opcodes.ACC_INTERFACE
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * A [ClassWriter] which resolves common super classes against the class hierarchy of a
+ * [ClassPool] rather than by loading the classes, which the obfuscated classes usually can not be.
+ * Only classes outside the pool, such as those of the JDK, are looked up through reflection, and
+ * the result is remembered for every writer.
+ */
+class PoolClassWriter(private val pool: ClassPool, flags: Int) : ClassWriter(flags) {
+
+    override fun getCommonSuperClass(type1: String, type2: String): String {
+        if(type1 == type2) {
+            return type1
+        }
+
+        if(isInterface(type1) || isInterface(type2)) {
+            return OBJECT
+        }
+
+        val ancestors = hashSetOf<String>()
+        var type: String? = type1
+        while(type != null) {
+            ancestors.add(type)
+            type = getSuperName(type)
+        }
+
+        type = type2
+        while(type != null) {
+            if(type in ancestors) {
+                return type
+            }
+            type = getSuperName(type)
+        }
+        return OBJECT
+    }
+
+    private fun isInterface(type: String): Boolean {
+        val cls = pool.findClass(type)
+        if(cls != null) {
+            return (cls.access and ACC_INTERFACE) != 0
+        }
+        return external(type)?.isInterface ?: false
+    }
+
+    private fun getSuperName(type: String): String? {
+        val cls = pool.findClass(type)
+        if(cls != null) {
+            return cls.superClass?.name ?: cls.superName
+        }
+        return external(type)?.superName
+    }
+
+    private fun external(type: String): ExternalClass? {
+        return externalClasses.computeIfAbsent(type) {
+            try {
+                val cls = Class.forName(type.replace('/', '.'), false, classLoader)
+                ExternalClass(cls.superclass?.name?.replace('.', '/'), cls.isInterface)
+            } catch(e: ClassNotFoundException) {
+                MISSING
+            } catch(e: LinkageError) {
+                MISSING
+            }
+        }.takeIf { it !== MISSING }
+    }
+
+    private class ExternalClass(val superName: String?, val isInterface: Boolean)
+
+    companion object {
+        private const val OBJECT = "java/lang/Object"
+
+        private val MISSING = ExternalClass(OBJECT, false)
+        private val externalClasses = ConcurrentHashMap<String, ExternalClass>()
+    }
+}
@@ -0,0 +1,25 @@
+package io.rsbox.deobfuscator.asm
+
+import io.rsbox.deobfuscator.asm.editor.FieldEditor
+import org.objectweb.asm.Opcodes.ASM9
+import org.objectweb.asm.tree.ClassNode
+import org.objectweb.asm.tree.FieldNode
+
+/**
+ * The [FieldNode] created for every field of a [PoolClassNode]. Fields added to a pool
+ * class after it has been loaded must also be of this type.
+ */
+class PoolFieldNode(
+    access: Int,
+    name: String,
+    descriptor: String,
+    signature: String?,
+    value: Any?
+) : FieldNode(ASM9, access, name, descriptor, signature, value) {
+
+    internal lateinit var owner: ClassNode
+
+    internal var editor: FieldEditor? = null
+
+    internal var virtualFields: List<FieldNode>? = null
+}
@@ -0,0 +1,27 @@
+package io.rsbox.deobfuscator.asm
+
+import io.rsbox.deobfuscator.asm.cfg.FlowGraph
+import io.rsbox.deobfuscator.asm.editor.MethodEditor
+import org.objectweb.asm.Opcodes.ASM9
+import org.objectweb.asm.tree.ClassNode
+import org.objectweb.asm.tree.MethodNode
+
+/**
+ * The [MethodNode] created for every method of a [PoolClassNode]. Methods added to a pool
+ * class after it has been loaded must also be of this type.
+ */
+class PoolMethodNode(
+    access: Int,
+    name: String,
+    descriptor: String,
+    signature: String?,
+    exceptions: Array<String>?
+) : MethodNode(ASM9, access, name, descriptor, signature, exceptions) {
+
+    internal lateinit var owner: ClassNode
+
+    internal var editor: MethodEditor? = null
+    internal var cfg: FlowGraph? = null
+
+    internal var virtualMethods: List<MethodNode>? = null
+}
@@ -0,0 +1,121 @@
+package io.rsbox.deobfuscator.asm.analysis
+
+import io.rsbox.deobfuscator.asm.owner
+import io.rsbox.deobfuscator.asm.util.WeakIdentityHashMap
+import org.objectweb.asm.tree.AbstractInsnNode
+import org.objectweb.asm.tree.MethodNode
+import org.objectweb.asm.tree.TryCatchBlockNode
+import org.objectweb.asm.tree.analysis.Analyzer
+import org.objectweb.asm.tree.analysis.BasicInterpreter
+import org.objectweb.asm.tree.analysis.BasicValue
+import org.objectweb.asm.tree.analysis.Frame
+import org.objectweb.asm.tree.analysis.Interpreter
+import org.objectweb.asm.tree.analysis.SourceInterpreter
+import org.objectweb.asm.tree.analysis.SourceValue
+import org.objectweb.asm.tree.analysis.Value
+import java.lang.ref.SoftReference
+
+/**
+ * Memoizes the frames and control flow graph of each method so that transformers
+ * do not repeat the same analysis.
+ *
+ * Results are dropped automatically when instructions or try-catch blocks are added,
+ * removed or replaced. Changing the operands of an existing instruction in place is not
+ * detected, so transformers doing that must call [invalidate] themselves.
+ */
+class AnalysisCache {
+
+    private val entries = WeakIdentityHashMap<MethodNode, Entry>()
+
+    @Suppress("UNCHECKED_CAST")
+    fun <V : Value> frames(method: MethodNode, kind: FrameKind<V>): Array<Frame<V>?> {
+        if(kind === FrameKind.BASIC) {
+            return analyzeControlFlow(method).frames as Array<Frame<V>?>
+        }
+        val entry = entry(method)
+        synchronized(entry) {
+            entry.frames[kind]?.get()?.let { return it as Array<Frame<V>?> }
+            val frames = Analyzer(kind.newInterpreter()).analyze(method.owner.name, method)
+            entry.frames[kind] = SoftReference(frames)
+            return frames
+        }
+    }
+
+    fun cfg(method: MethodNode): ControlFlowGraph = analyzeControlFlow(method).graph
+
+    fun invalidate(method: MethodNode) {
+        entries.remove(method)
+    }
+
+    fun clear() {
+        entries.clear()
+    }
+
+    /*
+     * The control flow analyzer runs the basic interpreter, so its frames are kept
+     * alongside the graph instead of being computed a second time.
+     */
+    private fun analyzeControlFlow(method: MethodNode): ControlFlowResult {
+        val entry = entry(method)
+        synchronized(entry) {
+            entry.controlFlow?.get()?.let { return it }
+            val analyzer = ControlFlowAnalyzer()
+            val graph = analyzer.buildGraph(method)
+            val result = ControlFlowResult(analyzer.frames, graph)
+            entry.controlFlow = SoftReference(result)
+            return result
+        }
+    }
+
+    private fun entry(method: MethodNode): Entry {
+        val entry = entries[method]
+        if(entry != null && entry.isValid(method)) {
+            return entry
+        }
+        return Entry(method).also { entries[method] = it }
+    }
+
+    private class ControlFlowResult(val frames: Array<Frame<BasicValue>?>, val graph: ControlFlowGraph)
+
+    private class Entry(method: MethodNode) {
+
+        private val insns: Array<AbstractInsnNode> = method.instructions.toArray()
+        private val tryCatchBlocks: List<TryCatchBlockNode> = method.tryCatchBlocks.toList()
+
+        val frames = hashMapOf<FrameKind<*>, SoftReference<Array<out Frame<*>?>>>()
+        var controlFlow: SoftReference<ControlFlowResult>? = null
+
+        fun isValid(method: MethodNode): Boolean {
+            if(method.instructions.size() != insns.size || method.tryCatchBlocks.size != tryCatchBlocks.size) {
+                return false
+            }
+
+            var insn = method.instructions.first
+            var index = 0
+            while(insn != null) {
+                if(insn !== insns[index++]) {
+                    return false
+                }
+                insn = insn.next
+            }
+
+            return method.tryCatchBlocks.indices.all { method.tryCatchBlocks[it] === tryCatchBlocks[it] }
+        }
+    }
+}
+
+/**
+ * Identifies the interpreter used to compute a method's frames in the [AnalysisCache].
+ * Kinds are compared by identity, so each should be created once and shared.
+ */
+class FrameKind<V : Value>(val name: String, private val factory: () -> Interpreter<V>) {
+
+    fun newInterpreter() = factory()
+
+    override fun toString() = name
+
+    companion object {
+        val BASIC = FrameKind("basic") { BasicInterpreter() }
+        val SOURCE = FrameKind("source") { SourceInterpreter() }
+    }
+}
@@ -0,0 +1,93 @@
+package io.rsbox.deobfuscator.asm.analysis
+
+/**
+ * Groups the nodes of a [ControlFlowGraph] into basic blocks: maximal chains where each node but
+ * the last has a single successor, and each node but the first has that node as its single predecessor.
+ *
+ * Blocks follow the edges of the graph they are built from, so the blocks of a reversed graph list
+ * their instructions last to first.
+ */
+class BasicBlocks(graph: ControlFlowGraph, entry: Int = -1) {
+
+    /**
+     * The block of each node, or -1 for unreachable nodes.
+     */
+    private val blockOf = IntArray(graph.size) { -1 }
+
+    private val blockOffsets: IntArray
+    private val nodes = IntArray(graph.size)
+
+    val size: Int
+
+    /**
+     * The edges between blocks, indexed by block number.
+     */
+    val graph: ControlFlowGraph
+
+    init {
+        val offsets = IntArray(graph.size + 1)
+        var count = 0
+        var blocks = 0
+
+        fun isLeader(node: Int): Boolean {
+            if(node == entry || graph.predecessorCount(node) != 1) {
+                return true
+            }
+            val predecessor = graph.predecessor(node, 0)
+            return predecessor == node || graph.successorCount(predecessor) != 1
+        }
+
+        fun addBlock(leader: Int) {
+            offsets[blocks] = count
+            var node = leader
+            while(true) {
+                blockOf[node] = blocks
+                nodes[count++] = node
+                if(graph.successorCount(node) != 1) {
+                    break
+                }
+                val successor = graph.successor(node, 0)
+                if(blockOf[successor] != -1 || isLeader(successor)) {
+                    break
+                }
+                node = successor
+            }
+            blocks++
+        }
+
+        for(node in 0 until graph.size) {
+            if(graph.isReachable(node) && isLeader(node)) {
+                addBlock(node)
+            }
+        }
+
+        /*
+         * A cycle with no way in, such as an infinite loop seen from the exits of a
+         * backwards graph, has no leader of its own.
+         */
+        for(node in 0 until graph.size) {
+            if(graph.isReachable(node) && blockOf[node] == -1) {
+                addBlock(node)
+            }
+        }
+
+        offsets[blocks] = count
+        size = blocks
+        blockOffsets = offsets.copyOf(blocks + 1)
+
+        val builder = ControlFlowGraph.Builder(blocks)
+        builder.reachable.fill(true)
+        for(block in 0 until blocks) {
+            val last = nodes[blockOffsets[block + 1] - 1]
+            for(i in 0 until graph.successorCount(last)) {
+                builder.addEdge(block, blockOf[graph.successor(last, i)])
+            }
+        }
+        this.graph = builder.build()
+    }
+
+    fun blockOf(node: Int) = blockOf[node]
+
+    fun nodeCount(block: Int) = blockOffsets[block + 1] - blockOffsets[block]
+    fun node(block: Int, index: Int) = nodes[blockOffsets[block] + index]
+}
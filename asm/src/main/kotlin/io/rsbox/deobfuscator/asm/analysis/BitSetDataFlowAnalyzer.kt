@@ -0,0 +1,197 @@
+package io.rsbox.deobfuscator.asm.analysis
+
+import io.rsbox.deobfuscator.asm.pool
+import org.objectweb.asm.tree.AbstractInsnNode
+import org.objectweb.asm.tree.MethodNode
+import java.util.BitSet
+
+/**
+ * A data-flow solver like [DataFlowAnalyzer], specialized for gen/kill problems whose facts are
+ * the ints `0 until bits`, such as liveness or reaching definitions.
+ *
+ * The gen and kill sets of every instruction are computed once up front, and the in and out sets
+ * of all instructions are rows of a single `long` array which are joined and transferred in place.
+ * Nodes are visited in reverse postorder, so most problems settle after very few passes.
+ *
+ * As with [DataFlowAnalyzer], in and out are relative to the direction of the analysis.
+ */
+abstract class BitSetDataFlowAnalyzer(
+    private val method: MethodNode,
+    val bits: Int,
+    private val backwards: Boolean = false,
+    private val intersect: Boolean = false
+) {
+
+    private val graph: ControlFlowGraph = method.pool.analysis.cfg(method).let {
+        if(backwards) it.reversed()
+        else it
+    }
+
+    private val words = (bits + 63) ushr 6
+    private val lastWordMask = if(bits and 63 == 0) -1L else (1L shl (bits and 63)) - 1
+
+    private val gen = LongArray(graph.size * words)
+    private val kill = LongArray(graph.size * words)
+    private val entry = LongArray(words)
+
+    private val inSets = LongArray(graph.size * words)
+    private val outSets = LongArray(graph.size * words)
+
+    /**
+     * Calls [gen] and [kill] for the facts of the instruction at the given index.
+     */
+    protected abstract fun computeGenKill(index: Int, insn: AbstractInsnNode)
+
+    /**
+     * Calls [entry] for the facts which hold at the entry of the analysis.
+     */
+    protected open fun computeEntry() {}
+
+    protected fun gen(index: Int, bit: Int) = set(gen, index * words, bit)
+    protected fun kill(index: Int, bit: Int) = set(kill, index * words, bit)
+    protected fun entry(bit: Int) = set(entry, 0, bit)
+
+    fun isInSet(insn: AbstractInsnNode, bit: Int) = isInSet(method.instructions.indexOf(insn), bit)
+    fun isInSet(index: Int, bit: Int) = get(inSets, index * words, bit)
+
+    fun isOutSet(insn: AbstractInsnNode, bit: Int) = isOutSet(method.instructions.indexOf(insn), bit)
+    fun isOutSet(index: Int, bit: Int) = get(outSets, index * words, bit)
+
+    fun getInSet(insn: AbstractInsnNode) = getInSet(method.instructions.indexOf(insn))
+    fun getInSet(index: Int): BitSet = BitSet.valueOf(inSets.copyOfRange(index * words, (index + 1) * words))
+
+    fun getOutSet(insn: AbstractInsnNode) = getOutSet(method.instructions.indexOf(insn))
+    fun getOutSet(index: Int): BitSet = BitSet.valueOf(outSets.copyOfRange(index * words, (index + 1) * words))
+
+    fun analyze() {
+        for(node in 0 until graph.size) {
+            if(graph.isReachable(node)) {
+                computeGenKill(node, method.instructions[node])
+            }
+        }
+        computeEntry()
+
+        /*
+         * Must problems start every node at the top of the lattice, which is the full set.
+         */
+        if(intersect && words > 0) {
+            outSets.fill(-1L)
+            for(node in 0 until graph.size) {
+                outSets[node * words + words - 1] = lastWordMask
+            }
+        }
+
+        val order = reversePostorder()
+        val position = IntArray(graph.size)
+        order.indices.forEach { position[order[it]] = it }
+
+        val pending = BitSet(order.size)
+        pending.set(0, order.size)
+
+        while(true) {
+            val next = pending.nextSetBit(0)
+            if(next < 0) {
+                break
+            }
+            pending.clear(next)
+
+            val node = order[next]
+            val base = node * words
+            join(node, base)
+
+            var changed = false
+            for(w in 0 until words) {
+                val value = gen[base + w] or (inSets[base + w] and kill[base + w].inv())
+                if(value != outSets[base + w]) {
+                    outSets[base + w] = value
+                    changed = true
+                }
+            }
+
+            if(changed) {
+                for(i in 0 until graph.successorCount(node)) {
+                    pending.set(position[graph.successor(node, i)])
+                }
+            }
+        }
+    }
+
+    private fun join(node: Int, base: Int) {
+        val predecessors = graph.predecessorCount(node)
+        var first = 0
+        if(isRoot(node)) {
+            entry.copyInto(inSets, base)
+        } else {
+            graph.predecessor(node, 0).let { outSets.copyInto(inSets, base, it * words, (it + 1) * words) }
+            first = 1
+        }
+
+        for(i in first until predecessors) {
+            val predecessor = graph.predecessor(node, i) * words
+            for(w in 0 until words) {
+                inSets[base + w] = if(intersect) {
+                    inSets[base + w] and outSets[predecessor + w]
+                } else {
+                    inSets[base + w] or outSets[predecessor + w]
+                }
+            }
+        }
+    }
+
+    private fun isRoot(node: Int) = graph.predecessorCount(node) == 0 || (!backwards && node == 0)
+
+    /*
+     * Iterative depth first search from the roots, followed by any reachable node the roots
+     * do not lead to, such as an infinite loop in a backwards analysis.
+     */
+    private fun reversePostorder(): IntArray {
+        val visited = BooleanArray(graph.size)
+        val order = IntArray(graph.size)
+        var count = 0
+
+        val stack = IntArray(graph.size)
+        val nextSuccessor = IntArray(graph.size)
+
+        fun visit(root: Int) {
+            var depth = 0
+            stack[depth++] = root
+            visited[root] = true
+            nextSuccessor[root] = 0
+            while(depth > 0) {
+                val node = stack[depth - 1]
+                if(nextSuccessor[node] < graph.successorCount(node)) {
+                    val successor = graph.successor(node, nextSuccessor[node]++)
+                    if(!visited[successor]) {
+                        visited[successor] = true
+                        nextSuccessor[successor] = 0
+                        stack[depth++] = successor
+                    }
+                } else {
+                    order[count++] = node
+                    depth--
+                }
+            }
+        }
+
+        for(node in 0 until graph.size) {
+            if(graph.isReachable(node) && !visited[node] && isRoot(node)) {
+                visit(node)
+            }
+        }
+        for(node in 0 until graph.size) {
+            if(graph.isReachable(node) && !visited[node]) {
+                visit(node)
+            }
+        }
+
+        return order.copyOf(count).apply { reverse() }
+    }
+
+    private fun set(array: LongArray, base: Int, bit: Int) {
+        array[base + (bit ushr 6)] = array[base + (bit ushr 6)] or (1L shl bit)
+    }
+
+    private fun get(array: LongArray, base: Int, bit: Int): Boolean {
+        return array[base + (bit ushr 6)] and (1L shl bit) != 0L
+    }
+}
@@ -1,10 +1,6 @@
 package io.rsbox.deobfuscator.asm.analysis
 
 import io.rsbox.deobfuscator.asm.owner
-import org.jgrapht.Graph
-import org.jgrapht.graph.AsUnmodifiableGraph
-import org.jgrapht.graph.DefaultDirectedGraph
-import org.jgrapht.graph.DefaultEdge
 import org.objectweb.asm.tree.MethodNode
 import org.objectweb.asm.tree.analysis.Analyzer
 import org.objectweb.asm.tree.analysis.BasicInterpreter
@@ -12,12 +8,10 @@ import org.objectweb.asm.tree.analysis.BasicValue
 
 class ControlFlowAnalyzer : Analyzer<BasicValue>(BasicInterpreter()) {
 
-    private val graph = DefaultDirectedGraph<Int, DefaultEdge>(DefaultEdge::class.java)
+    private lateinit var builder: ControlFlowGraph.Builder
 
     override fun newControlFlowEdge(insnIndex: Int, successorIndex: Int) {
-        graph.addVertex(insnIndex)
-        graph.addVertex(successorIndex)
-        graph.addEdge(insnIndex, successorIndex)
+        builder.addEdge(insnIndex, successorIndex)
     }
 
     override fun newControlFlowExceptionEdge(insnIndex: Int, successorIndex: Int): Boolean {
@@ -25,8 +19,10 @@ class ControlFlowAnalyzer : Analyzer<BasicValue>(BasicInterpreter()) {
         return true
     }
 
-    fun buildGraph(method: MethodNode): Graph<Int, DefaultEdge> {
-        analyze(method.owner.name, method)
-        return AsUnmodifiableGraph(graph)
+    fun buildGraph(method: MethodNode): ControlFlowGraph {
+        builder = ControlFlowGraph.Builder(method.instructions.size())
+        val frames = analyze(method.owner.name, method)
+        frames.indices.forEach { builder.reachable[it] = frames[it] != null }
+        return builder.build()
     }
-}
\ No newline at end of file
+}
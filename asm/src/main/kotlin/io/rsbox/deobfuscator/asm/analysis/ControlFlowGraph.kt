@@ -0,0 +1,88 @@
+package io.rsbox.deobfuscator.asm.analysis
+
+/**
+ * A control flow graph over the instruction indices of a method, stored as compressed sparse rows.
+ *
+ * The successors of node `n` are `successors[successorOffsets[n] until successorOffsets[n + 1]]`,
+ * and likewise for predecessors, so walking edges never boxes an index or allocates.
+ */
+class ControlFlowGraph private constructor(
+    val size: Int,
+    private val reachable: BooleanArray,
+    private val successorOffsets: IntArray,
+    private val successors: IntArray,
+    private val predecessorOffsets: IntArray,
+    private val predecessors: IntArray
+) {
+
+    val edgeCount get() = successors.size
+
+    fun isReachable(node: Int) = reachable[node]
+
+    fun successorCount(node: Int) = successorOffsets[node + 1] - successorOffsets[node]
+    fun successor(node: Int, index: Int) = successors[successorOffsets[node] + index]
+
+    fun predecessorCount(node: Int) = predecessorOffsets[node + 1] - predecessorOffsets[node]
+    fun predecessor(node: Int, index: Int) = predecessors[predecessorOffsets[node] + index]
+
+    /**
+     * Returns this graph with every edge reversed. The arrays are shared, not copied.
+     */
+    fun reversed() = ControlFlowGraph(size, reachable, predecessorOffsets, predecessors, successorOffsets, successors)
+
+    class Builder(private val size: Int) {
+
+        private var edges = LongArray(16)
+        private var edgeCount = 0
+
+        val reachable = BooleanArray(size)
+
+        fun addEdge(source: Int, target: Int) {
+            if(edgeCount == edges.size) {
+                edges = edges.copyOf(edges.size * 2)
+            }
+            edges[edgeCount++] = (source.toLong() shl 32) or target.toLong()
+        }
+
+        fun build(): ControlFlowGraph {
+            /*
+             * Sorting the packed edges orders them by source then target, which gives the
+             * successor rows directly and lets duplicate edges be dropped in the same pass.
+             */
+            val sorted = edges.copyOf(edgeCount)
+            sorted.sort()
+
+            val successorOffsets = IntArray(size + 1)
+            val predecessorOffsets = IntArray(size + 1)
+            val sources = IntArray(sorted.size)
+            val targets = IntArray(sorted.size)
+            var count = 0
+            for(i in sorted.indices) {
+                if(i > 0 && sorted[i] == sorted[i - 1]) {
+                    continue
+                }
+                val source = (sorted[i] ushr 32).toInt()
+                val target = sorted[i].toInt()
+                sources[count] = source
+                targets[count] = target
+                successorOffsets[source + 1]++
+                predecessorOffsets[target + 1]++
+                count++
+            }
+
+            for(i in 0 until size) {
+                successorOffsets[i + 1] += successorOffsets[i]
+                predecessorOffsets[i + 1] += predecessorOffsets[i]
+            }
+
+            val successors = targets.copyOf(count)
+            val predecessors = IntArray(count)
+            val next = predecessorOffsets.copyOf(size)
+            for(i in 0 until count) {
+                predecessors[next[targets[i]]++] = sources[i]
+            }
+
+            return ControlFlowGraph(size, reachable, successorOffsets, successors, predecessorOffsets, predecessors)
+        }
+    }
+}
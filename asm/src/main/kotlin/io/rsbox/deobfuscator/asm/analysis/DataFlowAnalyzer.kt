@@ -1,21 +1,25 @@
 package io.rsbox.deobfuscator.asm.analysis
 
-import io.rsbox.deobfuscator.asm.util.UniqueQueue
-import org.jgrapht.Graph
-import org.jgrapht.graph.DefaultEdge
-import org.jgrapht.graph.EdgeReversedGraph
+import io.rsbox.deobfuscator.asm.pool
+import io.rsbox.deobfuscator.asm.util.UniqueIntQueue
 import org.objectweb.asm.tree.AbstractInsnNode
 import org.objectweb.asm.tree.MethodNode
 
+/**
+ * Solves a data-flow problem over the basic blocks of a method. Only the sets at the
+ * boundaries of each block are stored; the sets of an instruction are recomputed from
+ * the start of its block when asked for.
+ */
 abstract class DataFlowAnalyzer<T>(private val method: MethodNode, private val backwards: Boolean = false) {
 
-    private val graph: Graph<Int, DefaultEdge> = ControlFlowAnalyzer().buildGraph(method).let {
-        if(backwards) EdgeReversedGraph(it)
-        else it
+    private val blocks = method.pool.analysis.cfg(method).let {
+        if(backwards) BasicBlocks(it.reversed())
+        else BasicBlocks(it, 0)
     }
+    private val graph = blocks.graph
 
-    private val inSets = mutableMapOf<Int, T>()
-    private val outSets = mutableMapOf<Int, T>()
+    private val inSets = arrayOfNulls<Any>(blocks.size)
+    private val outSets = arrayOfNulls<Any>(blocks.size)
 
     open fun createEntrySet(): T = createInitialSet()
     abstract fun createInitialSet(): T
@@ -23,41 +27,76 @@ abstract class DataFlowAnalyzer<T>(private val method: MethodNode, private val b
     abstract fun transfer(set: T, insn: AbstractInsnNode): T
 
     fun getInSet(insn: AbstractInsnNode): T? = getInSet(method.instructions.indexOf(insn))
-    fun getInSet(index: Int): T? = inSets[index]
+    fun getInSet(index: Int): T? = getSet(index, false)
 
     fun getOutSet(insn: AbstractInsnNode): T? = getOutSet(method.instructions.indexOf(insn))
-    fun getOutSet(index: Int): T? = outSets[index]
+    fun getOutSet(index: Int): T? = getSet(index, true)
 
     fun analyze() {
         val entrySet = createEntrySet()
         val initialSet = createInitialSet()
 
-        val workList = UniqueQueue<Int>()
-        workList.addAll(graph.vertexSet().filter { graph.inDegreeOf(it) == 0 })
+        /*
+         * Every block is visited at least once. In a backwards analysis this includes the blocks
+         * which can not reach an exit, such as those of an infinite loop.
+         */
+        val workList = UniqueIntQueue(blocks.size)
+        for(block in 0 until blocks.size) {
+            workList.add(block)
+        }
 
-        while(true) {
-            val node = workList.removeFirstOrNull() ?: break
+        while(!workList.isEmpty()) {
+            val block = workList.removeFirst()
 
-            val predecessors = graph.incomingEdgesOf(node).map { edge ->
-                outSets[graph.getEdgeSource(edge)] ?: initialSet
+            /*
+             * The entry set is joined with the predecessors of an entry block, as the entry
+             * instruction of a forwards analysis may also be the target of a back edge.
+             */
+            var inSet = entrySet
+            var first = !isEntry(block)
+            for(i in 0 until graph.predecessorCount(block)) {
+                @Suppress("UNCHECKED_CAST")
+                val predecessorSet = outSets[graph.predecessor(block, i)] as T? ?: initialSet
+                inSet = if(first) predecessorSet else join(inSet, predecessorSet)
+                first = false
             }
 
-            val inSet = if(predecessors.isEmpty()) {
-                entrySet
-            } else {
-                predecessors.reduce(this::join)
-            }
+            inSets[block] = inSet
 
-            inSets[node] = inSet
+            var outSet = inSet
+            for(i in 0 until blocks.nodeCount(block)) {
+                outSet = transfer(outSet, method.instructions[blocks.node(block, i)])
+            }
 
-            val outSet = transfer(inSet, method.instructions[node])
-            if(outSets[node] != outSet) {
-                outSets[node] = outSet
-                for(edge in graph.outgoingEdgesOf(node)) {
-                    val successor = graph.getEdgeTarget(edge)
-                    workList.add(successor)
+            if(outSets[block] != outSet) {
+                outSets[block] = outSet
+                for(i in 0 until graph.successorCount(block)) {
+                    workList.add(graph.successor(block, i))
                 }
             }
         }
     }
-}
\ No newline at end of file
+
+    private fun isEntry(block: Int) = graph.predecessorCount(block) == 0 || (!backwards && blocks.node(block, 0) == 0)
+
+    @Suppress("UNCHECKED_CAST")
+    private fun getSet(index: Int, out: Boolean): T? {
+        val block = blocks.blockOf(index)
+        if(block == -1 || inSets[block] == null) {
+            return null
+        }
+
+        var set = inSets[block] as T
+        for(i in 0 until blocks.nodeCount(block)) {
+            val node = blocks.node(block, i)
+            if(node == index && !out) {
+                return set
+            }
+            set = transfer(set, method.instructions[node])
+            if(node == index) {
+                return set
+            }
+        }
+        throw IllegalStateException("Instruction $index is missing from its block.")
+    }
+}
@@ -1,6 +1,89 @@
 package io.rsbox.deobfuscator.asm.analysis
 
-class FieldWriteAnalyzer(
+import io.rsbox.deobfuscator.asm.ClassPool
+import io.rsbox.deobfuscator.asm.resolveField
+import io.rsbox.deobfuscator.asm.virtualFields
+import org.objectweb.asm.Opcodes.*
+import org.objectweb.asm.tree.AbstractInsnNode
+import org.objectweb.asm.tree.ClassNode
+import org.objectweb.asm.tree.FieldInsnNode
+import org.objectweb.asm.tree.FieldNode
+import org.objectweb.asm.tree.InsnNode
+import org.objectweb.asm.tree.IntInsnNode
+import org.objectweb.asm.tree.LdcInsnNode
+import org.objectweb.asm.tree.MethodNode
+import java.util.stream.Collectors
 
-) {
-}
\ No newline at end of file
+/**
+ * An index of every write to each field of the pool's classes, built in one parallel pass.
+ *
+ * Writes are grouped by [FieldNode.virtualFields], so a field shares its writes with every field
+ * it shadows or is shadowed by. The index does not change once built and can be shared between
+ * threads. Writes to fields outside the pool are not indexed.
+ */
+class FieldWriteAnalyzer(pool: ClassPool) {
+
+    private val writes: Map<FieldNode, List<FieldWrite>>
+
+    init {
+        writes = pool.classes.parallelStream()
+            .flatMap { cls -> cls.methods.stream().map { method -> cls to method } }
+            .filter { (_, method) -> method.instructions.any { it.opcode == PUTFIELD || it.opcode == PUTSTATIC } }
+            .flatMap { (cls, method) -> findWrites(pool, cls, method).stream() }
+            .collect(Collectors.groupingBy { it.field.virtualFields.first() })
+            .mapValues { it.value.toList() }
+    }
+
+    /**
+     * Returns every write to the given field, or any field in its virtual partition.
+     */
+    fun getWrites(field: FieldNode): List<FieldWrite> = writes[field.virtualFields.first()] ?: emptyList()
+
+    val fields: Set<FieldNode> get() = writes.keys
+
+    private fun findWrites(pool: ClassPool, cls: ClassNode, method: MethodNode): List<FieldWrite> {
+        val frames = pool.analysis.frames(method, FrameKind.SOURCE)
+        val writes = mutableListOf<FieldWrite>()
+
+        method.instructions.forEachIndexed { index, insn ->
+            if(insn !is FieldInsnNode || (insn.opcode != PUTFIELD && insn.opcode != PUTSTATIC)) {
+                return@forEachIndexed
+            }
+
+            val frame = frames[index] ?: return@forEachIndexed
+            val field = pool.findClass(insn.owner)?.resolveField(insn.name, insn.desc) ?: return@forEachIndexed
+            val value = frame.getStack(frame.stackSize - 1)
+            writes.add(FieldWrite(field, cls, method, insn, value.insns))
+        }
+
+        return writes
+    }
+
+    class FieldWrite(
+        val field: FieldNode,
+        val owner: ClassNode,
+        val method: MethodNode,
+        val insn: FieldInsnNode,
+        val sources: Set<AbstractInsnNode>
+    ) {
+
+        /**
+         * The constant written, if the value always comes from a single constant instruction.
+         */
+        val constant: Any? get() {
+            val source = sources.singleOrNull() ?: return null
+            return when {
+                source is LdcInsnNode -> source.cst
+                source is IntInsnNode && (source.opcode == BIPUSH || source.opcode == SIPUSH) -> source.operand
+                source is InsnNode -> when(source.opcode) {
+                    in ICONST_M1..ICONST_5 -> source.opcode - ICONST_0
+                    LCONST_0, LCONST_1 -> (source.opcode - LCONST_0).toLong()
+                    FCONST_0, FCONST_1, FCONST_2 -> (source.opcode - FCONST_0).toFloat()
+                    DCONST_0, DCONST_1 -> (source.opcode - DCONST_0).toDouble()
+                    else -> null
+                }
+                else -> null
+            }
+        }
+    }
+}
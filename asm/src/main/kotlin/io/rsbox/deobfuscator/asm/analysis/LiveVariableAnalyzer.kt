@@ -0,0 +1,27 @@
+package io.rsbox.deobfuscator.asm.analysis
+
+import org.objectweb.asm.Opcodes.ILOAD
+import org.objectweb.asm.Opcodes.ISTORE
+import org.objectweb.asm.Opcodes.RET
+import org.objectweb.asm.tree.AbstractInsnNode
+import org.objectweb.asm.tree.IincInsnNode
+import org.objectweb.asm.tree.MethodNode
+import org.objectweb.asm.tree.VarInsnNode
+
+/**
+ * Finds the local variable slots which are live around each instruction. As this is a backwards
+ * analysis, the in set of an instruction holds the slots live after it, and the out set those
+ * live before it.
+ */
+class LiveVariableAnalyzer(method: MethodNode) : BitSetDataFlowAnalyzer(method, method.maxLocals, backwards = true) {
+
+    override fun computeGenKill(index: Int, insn: AbstractInsnNode) {
+        when(insn) {
+            is VarInsnNode -> when(insn.opcode) {
+                in ILOAD until ISTORE, RET -> gen(index, insn.`var`)
+                else -> kill(index, insn.`var`)
+            }
+            is IincInsnNode -> gen(index, insn.`var`)
+        }
+    }
+}
@@ -1,16 +1,24 @@
 package io.rsbox.deobfuscator.asm.file
 
 import io.rsbox.deobfuscator.asm.ClassPool
-import io.rsbox.deobfuscator.asm.isIgnored
+import io.rsbox.deobfuscator.asm.PoolClassNode
 import io.rsbox.deobfuscator.asm.reflect.ClassInfo
 import io.rsbox.deobfuscator.asm.toByteArray
 import java.io.ByteArrayOutputStream
 import java.io.File
 import java.io.OutputStream
 
+/**
+ * Loads the BLOAT [ClassInfo] of a pool class from its [ClassNode], and writes committed
+ * classes back into their nodes.
+ *
+ * A committed class info already matches the bytes written back from it, so it is kept as the
+ * class's info instead of serializing the node once more. Only the committed classes are touched.
+ */
 class ClassNodeFileLoader(private val pool: ClassPool) : ClassFileLoader() {
 
     private val outputStreamMap = hashMapOf<String, ByteArrayOutputStream>()
+    private val committedInfos = hashMapOf<String, ClassInfo>()
 
     override fun loadClass(name: String): ClassInfo {
         val node = pool.findClass(name)
@@ -26,20 +34,16 @@ class ClassNodeFileLoader(private val pool: ClassPool) : ClassFileLoader() {
     }
 
     override fun outputStreamFor(info: ClassInfo): OutputStream {
+        committedInfos[info.name()] = info
         return outputStreamFor(info.name())
     }
 
     override fun done() {
         outputStreamMap.forEach { (className, outputStream) ->
             val node = pool.findClass(className) ?: throw IllegalStateException("Could not find class: $className.")
-            val isIgnored = node.isIgnored()
-            pool.removeClass(node)
-            pool.addClass(outputStream.toByteArray())
-            if(isIgnored) {
-                val c = pool.getClass(className)!!
-                pool.ignoreClass(c)
-            }
+            pool.reloadClass(node as PoolClassNode, outputStream.toByteArray(), committedInfos[className])
         }
-        pool.build()
+        outputStreamMap.clear()
+        committedInfos.clear()
     }
-}
\ No newline at end of file
+}
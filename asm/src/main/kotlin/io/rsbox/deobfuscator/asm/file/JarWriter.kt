@@ -0,0 +1,164 @@
+package io.rsbox.deobfuscator.asm.file
+
+import java.io.BufferedOutputStream
+import java.io.Closeable
+import java.io.File
+import java.io.FileOutputStream
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.time.LocalDateTime
+import java.util.zip.CRC32
+import java.util.zip.Deflater
+import java.util.zip.ZipException
+
+/**
+ * Writes jar entries which have already been compressed with [compress].
+ *
+ * Compression is the expensive part of writing a jar and is safe to do on many threads,
+ * leaving this writer to only lay out the headers and data in the order entries are written.
+ * Like [MappedJarFile], it does not support Zip64, and throws a [ZipException] instead of
+ * writing a jar with more entries or bytes than the plain format can hold.
+ */
+class JarWriter(file: File) : Closeable {
+
+    private val output = BufferedOutputStream(FileOutputStream(file), 1 shl 16)
+    private val centralDirectory = mutableListOf<Pair<Entry, Long>>()
+    private var offset = 0L
+
+    private val time: Int
+    private val date: Int
+
+    init {
+        val now = LocalDateTime.now()
+        time = (now.hour shl 11) or (now.minute shl 5) or (now.second / 2)
+        date = ((now.year - 1980) shl 9) or (now.monthValue shl 5) or now.dayOfMonth
+    }
+
+    fun write(entry: Entry) {
+        if(entry.name.size > MAX_SHORT) {
+            throw ZipException("Entry name is too long: ${String(entry.name, Charsets.UTF_8)}.")
+        }
+        if(centralDirectory.size == MAX_SHORT) {
+            throw ZipException("Jar files with more than $MAX_SHORT entries need Zip64, which is not supported.")
+        }
+        checkOffset(offset)
+        centralDirectory.add(entry to offset)
+
+        val header = header(LOCAL_HEADER_SIZE + entry.name.size)
+        header.putInt(LOCAL_HEADER)
+        header.putShort(VERSION)
+        header.putShort(UTF8_FLAG)
+        header.putShort(DEFLATED)
+        header.putShort(time.toShort())
+        header.putShort(date.toShort())
+        header.putInt(entry.crc)
+        header.putInt(entry.data.size)
+        header.putInt(entry.size)
+        header.putShort(entry.name.size.toShort())
+        header.putShort(0)
+        header.put(entry.name)
+
+        write(header)
+        output.write(entry.data)
+        offset += entry.data.size
+    }
+
+    override fun close() {
+        output.use {
+            val start = offset
+            centralDirectory.forEach { (entry, headerOffset) ->
+                val header = header(CENTRAL_HEADER_SIZE + entry.name.size)
+                header.putInt(CENTRAL_HEADER)
+                header.putShort(VERSION)
+                header.putShort(VERSION)
+                header.putShort(UTF8_FLAG)
+                header.putShort(DEFLATED)
+                header.putShort(time.toShort())
+                header.putShort(date.toShort())
+                header.putInt(entry.crc)
+                header.putInt(entry.data.size)
+                header.putInt(entry.size)
+                header.putShort(entry.name.size.toShort())
+                header.putShort(0)
+                header.putShort(0)
+                header.putShort(0)
+                header.putShort(0)
+                header.putInt(0)
+                header.putInt(headerOffset.toInt())
+                header.put(entry.name)
+                write(header)
+            }
+
+            checkOffset(offset)
+
+            val header = header(END_HEADER_SIZE)
+            header.putInt(END_HEADER)
+            header.putShort(0)
+            header.putShort(0)
+            header.putShort(centralDirectory.size.toShort())
+            header.putShort(centralDirectory.size.toShort())
+            header.putInt((offset - start).toInt())
+            header.putInt(start.toInt())
+            header.putShort(0)
+            write(header)
+        }
+    }
+
+    private fun checkOffset(offset: Long) {
+        if(offset > MAX_INT) {
+            throw ZipException("Jar files larger than $MAX_INT bytes need Zip64, which is not supported.")
+        }
+    }
+
+    private fun header(size: Int) = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN)
+
+    private fun write(header: ByteBuffer) {
+        output.write(header.array())
+        offset += header.capacity()
+    }
+
+    class Entry(val name: ByteArray, val size: Int, val crc: Int, val data: ByteArray)
+
+    companion object {
+
+        private const val LOCAL_HEADER = 0x04034b50
+        private const val CENTRAL_HEADER = 0x02014b50
+        private const val END_HEADER = 0x06054b50
+        private const val LOCAL_HEADER_SIZE = 30
+        private const val CENTRAL_HEADER_SIZE = 46
+        private const val END_HEADER_SIZE = 22
+
+        private const val MAX_SHORT = 0xFFFF
+        private const val MAX_INT = 0xFFFFFFFFL
+
+        private const val VERSION: Short = 20
+        private const val UTF8_FLAG: Short = 0x800
+        private const val DEFLATED: Short = 8
+
+        /**
+         * Deflates the given entry data. This can be called from any thread.
+         */
+        fun compress(name: String, bytes: ByteArray): Entry {
+            val crc = CRC32().apply { update(bytes) }
+
+            val deflater = Deflater(Deflater.DEFAULT_COMPRESSION, true)
+            val data = try {
+                deflater.setInput(bytes)
+                deflater.finish()
+                var buffer = ByteArray(maxOf(64, bytes.size / 2))
+                var length = 0
+                while(!deflater.finished()) {
+                    if(length == buffer.size) {
+                        buffer = buffer.copyOf(buffer.size * 2)
+                    }
+                    length += deflater.deflate(buffer, length, buffer.size - length)
+                }
+                buffer.copyOf(length)
+            } finally {
+                deflater.end()
+            }
+
+            return Entry(name.toByteArray(Charsets.UTF_8), bytes.size, crc.value.toInt(), data)
+        }
+    }
+}
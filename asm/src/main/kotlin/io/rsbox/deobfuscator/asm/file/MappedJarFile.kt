@@ -0,0 +1,127 @@
+package io.rsbox.deobfuscator.asm.file
+
+import java.io.Closeable
+import java.io.File
+import java.io.IOException
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.nio.MappedByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.file.StandardOpenOption
+import java.util.zip.Inflater
+import java.util.zip.ZipException
+
+/**
+ * A read only jar file which is memory mapped and indexed from its central directory.
+ *
+ * Unlike [java.util.jar.JarFile], entries can be read from many threads at once, as each
+ * read works on its own view of the mapping and its own [Inflater].
+ */
+class MappedJarFile(file: File) : Closeable {
+
+    private val channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)
+    private val buffer: MappedByteBuffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).apply {
+        order(ByteOrder.LITTLE_ENDIAN)
+    }
+
+    val entries: List<Entry> = readCentralDirectory()
+
+    fun read(entry: Entry): ByteArray {
+        if(buffer.getInt(entry.headerOffset) != LOCAL_HEADER) {
+            throw ZipException("Invalid local header for entry: ${entry.name}.")
+        }
+
+        val nameLength = buffer.getShort(entry.headerOffset + 26).toInt() and 0xFFFF
+        val extraLength = buffer.getShort(entry.headerOffset + 28).toInt() and 0xFFFF
+        val data = slice(entry.headerOffset + 30 + nameLength + extraLength, entry.compressedSize)
+
+        return when(entry.method) {
+            STORED -> ByteArray(entry.size).also { data.get(it) }
+            DEFLATED -> inflate(data, entry)
+            else -> throw ZipException("Unsupported compression method ${entry.method} for entry: ${entry.name}.")
+        }
+    }
+
+    override fun close() {
+        channel.close()
+    }
+
+    private fun inflate(data: ByteBuffer, entry: Entry): ByteArray {
+        val bytes = ByteArray(entry.size)
+        val inflater = Inflater(true)
+        try {
+            inflater.setInput(data)
+            var offset = 0
+            while(!inflater.finished() && offset < bytes.size) {
+                val count = inflater.inflate(bytes, offset, bytes.size - offset)
+                if(count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw ZipException("Truncated data for entry: ${entry.name}.")
+                }
+                offset += count
+            }
+        } finally {
+            inflater.end()
+        }
+        return bytes
+    }
+
+    private fun readCentralDirectory(): List<Entry> {
+        val end = findEndOfCentralDirectory()
+        val count = buffer.getShort(end + 10).toInt() and 0xFFFF
+        var offset = buffer.getInt(end + 16)
+
+        val entries = ArrayList<Entry>(count)
+        repeat(count) {
+            if(buffer.getInt(offset) != CENTRAL_HEADER) {
+                throw ZipException("Invalid central directory header at offset $offset.")
+            }
+
+            val method = buffer.getShort(offset + 10).toInt() and 0xFFFF
+            val compressedSize = buffer.getInt(offset + 20)
+            val size = buffer.getInt(offset + 24)
+            val nameLength = buffer.getShort(offset + 28).toInt() and 0xFFFF
+            val extraLength = buffer.getShort(offset + 30).toInt() and 0xFFFF
+            val commentLength = buffer.getShort(offset + 32).toInt() and 0xFFFF
+            val headerOffset = buffer.getInt(offset + 42)
+
+            if(compressedSize == -1 || size == -1 || headerOffset == -1) {
+                throw ZipException("Zip64 jar files are not supported.")
+            }
+
+            val name = ByteArray(nameLength).also { slice(offset + 46, nameLength).get(it) }
+            entries.add(Entry(String(name, Charsets.UTF_8), method, compressedSize, size, headerOffset))
+
+            offset += 46 + nameLength + extraLength + commentLength
+        }
+        return entries
+    }
+
+    private fun findEndOfCentralDirectory(): Int {
+        val limit = maxOf(0, buffer.limit() - END_HEADER_SIZE - 0xFFFF)
+        for(offset in buffer.limit() - END_HEADER_SIZE downTo limit) {
+            if(buffer.getInt(offset) == END_HEADER) {
+                return offset
+            }
+        }
+        throw IOException("Could not find the end of the central directory.")
+    }
+
+    private fun slice(offset: Int, length: Int): ByteBuffer {
+        val view = buffer.duplicate()
+        view.position(offset)
+        view.limit(offset + length)
+        return view.slice()
+    }
+
+    class Entry(val name: String, val method: Int, val compressedSize: Int, val size: Int, val headerOffset: Int)
+
+    private companion object {
+        const val LOCAL_HEADER = 0x04034b50
+        const val CENTRAL_HEADER = 0x02014b50
+        const val END_HEADER = 0x06054b50
+        const val END_HEADER_SIZE = 22
+
+        const val STORED = 0
+        const val DEFLATED = 8
+    }
+}
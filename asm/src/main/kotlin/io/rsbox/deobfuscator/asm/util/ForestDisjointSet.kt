@@ -0,0 +1,65 @@
+package io.rsbox.deobfuscator.asm.util
+
+/**
+ * A [DisjointSet] backed by a union-find forest with union by size and path halving.
+ *
+ * Partitions returned by [add] and [get] are the roots of their trees at the time of the call. The
+ * members of a partition are kept in its root, so iterating any partition is proportional to its size.
+ * This class is not thread safe.
+ */
+class ForestDisjointSet<T> : DisjointSet<T> {
+
+    private val nodes = hashMapOf<T, Node<T>>()
+
+    override val elements get() = nodes.size
+
+    override var partitions = 0
+        private set
+
+    override fun add(element: T): DisjointSet.Partition<T> {
+        nodes[element]?.let { return it.find() }
+
+        partitions++
+        return Node(element).also { nodes[element] = it }
+    }
+
+    override fun union(element1: DisjointSet.Partition<T>, element2: DisjointSet.Partition<T>) {
+        var root1 = (element1 as Node<T>).find()
+        var root2 = (element2 as Node<T>).find()
+        if(root1 === root2) {
+            return
+        }
+
+        if(root1.members.size < root2.members.size) {
+            root1 = root2.also { root2 = root1 }
+        }
+
+        root2.parent = root1
+        root1.members.addAll(root2.members)
+        root2.members = mutableListOf()
+        partitions--
+    }
+
+    override operator fun get(element: T): DisjointSet.Partition<T>? = nodes[element]?.find()
+
+    override fun iterator(): Iterator<DisjointSet.Partition<T>> {
+        return nodes.values.asSequence().filter { it.parent === it }.iterator()
+    }
+
+    private class Node<T>(element: T) : DisjointSet.Partition<T> {
+
+        var parent: Node<T> = this
+        var members = mutableListOf(element)
+
+        fun find(): Node<T> {
+            var node = this
+            while(node.parent !== node) {
+                node.parent = node.parent.parent
+                node = node.parent
+            }
+            return node
+        }
+
+        override fun iterator(): Iterator<T> = find().members.iterator()
+    }
+}
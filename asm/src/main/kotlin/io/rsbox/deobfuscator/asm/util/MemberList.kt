@@ -0,0 +1,49 @@
+package io.rsbox.deobfuscator.asm.util
+
+/**
+ * A list of class members which can find a member by its name and descriptor in constant time.
+ *
+ * The index is rebuilt on the next lookup after members are added, removed or replaced. Renaming
+ * a member in place is not seen as a change, so [reindex] must be called after doing so.
+ */
+class MemberList<T>(
+    private val nameOf: (T) -> String,
+    private val descOf: (T) -> String
+) : ArrayList<T>() {
+
+    @Volatile
+    private var index: Index<T>? = null
+
+    fun find(name: String, desc: String): T? {
+        val member = index().find(name, desc)
+        if(member != null && (nameOf(member) != name || descOf(member) != desc)) {
+            return reindex().find(name, desc)
+        }
+        return member
+    }
+
+    fun reindex(): Index<T> {
+        val members = hashMapOf<String, HashMap<String, T>>()
+        forEach { member ->
+            members.getOrPut(nameOf(member)) { HashMap(2) }.putIfAbsent(descOf(member), member)
+        }
+        return Index(members, modCount).also { index = it }
+    }
+
+    override fun set(index: Int, element: T): T {
+        modCount++
+        return super.set(index, element)
+    }
+
+    private fun index(): Index<T> {
+        val index = index
+        if(index == null || index.modCount != modCount) {
+            return reindex()
+        }
+        return index
+    }
+
+    class Index<T> internal constructor(private val members: Map<String, Map<String, T>>, internal val modCount: Int) {
+        fun find(name: String, desc: String) = members[name]?.get(desc)
+    }
+}
@@ -0,0 +1,43 @@
+package io.rsbox.deobfuscator.asm.util
+
+/**
+ * A [UniqueQueue] of ints in the range `0 until capacity` which does not box its values.
+ */
+class UniqueIntQueue(capacity: Int) {
+
+    private val queue = IntArray(capacity)
+    private val queued = BooleanArray(capacity)
+    private var head = 0
+    private var size = 0
+
+    fun add(value: Int): Boolean {
+        if(queued[value]) {
+            return false
+        }
+        queued[value] = true
+        queue[(head + size++) % queue.size] = value
+        return true
+    }
+
+    fun isEmpty() = size == 0
+
+    /**
+     * Removes the first value in the queue, or returns -1 if it is empty.
+     */
+    fun removeFirst(): Int {
+        if(size == 0) {
+            return -1
+        }
+        val value = queue[head]
+        head = (head + 1) % queue.size
+        size--
+        queued[value] = false
+        return value
+    }
+
+    fun clear() {
+        queued.fill(false)
+        head = 0
+        size = 0
+    }
+}
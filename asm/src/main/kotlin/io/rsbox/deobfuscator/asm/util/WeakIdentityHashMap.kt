@@ -2,108 +2,210 @@ package io.rsbox.deobfuscator.asm.util
 
 import java.lang.ref.ReferenceQueue
 import java.lang.ref.WeakReference
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.locks.ReentrantLock
 
-class WeakIdentityHashMap<K, V> : Map<K, V> {
-    private val refQueue = ReferenceQueue<K>()
-    private val backingStore = hashMapOf<WeakIdentityReference, V>()
-
-    override val entries: Set<Map.Entry<K, V>> = referenceAwareFunction {
-        hashSetOf<WeakIdentityHashEntry>().apply {
-            backingStore.entries.forEach { reference ->
-                reference.key.get()?.let { key ->
-                    WeakIdentityHashEntry(key, reference.value).apply {
-                        add(this)
-                    }
-                }
-            }
+/**
+ * A thread safe map which compares keys by identity and holds them weakly.
+ *
+ * Keys are spread over a number of segments, each with its own reference queue. Reads never
+ * lock and never reap. Writes reap their segment in batches, and only when no other thread
+ * is already doing so.
+ */
+class WeakIdentityHashMap<K, V>(concurrencyLevel: Int = 16) : Map<K, V> {
+
+    private val segments: Array<Segment>
+    private val segmentMask: Int
+
+    init {
+        var count = 1
+        while(count < concurrencyLevel) {
+            count = count shl 1
         }
+        segments = Array(count) { Segment() }
+        segmentMask = count - 1
     }
 
-    override val keys: Set<K> = referenceAwareFunction {
-        mutableSetOf<K>().apply {
-            backingStore.keys.forEach { key ->
-                key.get()?.let {
-                    add(it)
-                }
+    private val lookupKey = ThreadLocal.withInitial { LookupKey() }
+
+    override val entries: Set<Map.Entry<K, V>> get() = hashSetOf<Map.Entry<K, V>>().apply {
+        segments.forEach { segment ->
+            segment.store.forEach { (reference, value) ->
+                reference.get()?.let { add(WeakIdentityHashEntry(it, value)) }
             }
         }
     }
 
-    override val size: Int = referenceAwareFunction(backingStore::size)
+    override val keys: Set<K> get() = mutableSetOf<K>().apply {
+        segments.forEach { segment ->
+            segment.store.keys.forEach { reference -> reference.get()?.let { add(it) } }
+        }
+    }
 
-    override val values: Collection<V> = referenceAwareFunction(backingStore::values)
+    override val size: Int get() {
+        segments.forEach { it.reap() }
+        return segments.sumOf { it.store.size }
+    }
 
-    override fun containsKey(key: K): Boolean = referenceAwareFunction {
-        backingStore.containsKey(WeakIdentityReference(key))
+    override val values: Collection<V> get() = mutableListOf<V>().apply {
+        segments.forEach { segment ->
+            segment.store.forEach { (reference, value) ->
+                if(reference.get() != null) add(value)
+            }
+        }
     }
 
-    override fun containsValue(value: V): Boolean = referenceAwareFunction {
-        backingStore.containsValue(value)
+    override fun containsKey(key: K): Boolean = get(key) != null
+
+    override fun containsValue(value: V): Boolean = segments.any { it.store.containsValue(value) }
+
+    @Suppress("UNCHECKED_CAST")
+    override operator fun get(key: K): V? {
+        val lookup = lookupKey.get()
+        lookup.set(key)
+        try {
+            return (segmentFor(lookup.hash).store as Map<Any, V>)[lookup]
+        } finally {
+            lookup.clear()
+        }
     }
 
-    override operator fun get(key: K): V? = referenceAwareFunction {
-        backingStore[WeakIdentityReference(key)]
+    /**
+     * Maps the key to the given value. Setting a null value removes the key instead.
+     */
+    operator fun set(key: K, value: V): V? {
+        if(value == null) {
+            return remove(key)
+        }
+
+        val reference = WeakIdentityReference(key)
+        return segmentFor(reference.hash).let { segment ->
+            segment.reap()
+            segment.store.put(reference, value)
+        }
     }
 
-    operator fun set(key: K, value: V): V? = referenceAwareFunction {
-        WeakIdentityReference(key).run {
-            backingStore.put(this, value)
+    /**
+     * Returns the value for the given key, atomically storing the result of [init] if there is none.
+     */
+    fun getOrPut(key: K, init: () -> V): V {
+        get(key)?.let { return it }
+
+        val reference = WeakIdentityReference(key)
+        return segmentFor(reference.hash).let { segment ->
+            segment.reap()
+            segment.store.computeIfAbsent(reference) { init() }
         }
     }
 
-    fun remove(key: K): V? = referenceAwareFunction {
-        WeakIdentityReference(key).run {
-            backingStore.remove(this)
+    @Suppress("UNCHECKED_CAST")
+    fun remove(key: K): V? {
+        val lookup = lookupKey.get()
+        lookup.set(key)
+        try {
+            val segment = segmentFor(lookup.hash)
+            segment.reap()
+            return (segment.store as MutableMap<Any, V>).remove(lookup)
+        } finally {
+            lookup.clear()
         }
     }
 
-    override fun isEmpty(): Boolean = referenceAwareFunction(backingStore::isEmpty)
+    override fun isEmpty(): Boolean = segments.all { segment -> segment.store.keys.all { it.get() == null } }
 
-    fun clear() = backingStore.clear().also {
-        reap()
+    fun clear() = segments.forEach { segment ->
+        segment.store.clear()
+        segment.reap()
     }
 
-    override fun hashCode(): Int = referenceAwareFunction(backingStore::hashCode)
+    override fun hashCode(): Int = entries.sumOf { System.identityHashCode(it.key) xor it.value.hashCode() }
 
     override fun equals(other: Any?): Boolean {
-        if (other !is WeakIdentityHashMap<*, *>) {
+        if(this === other) {
+            return true
+        }
+
+        if(other !is WeakIdentityHashMap<*, *>) {
             return false
         }
 
-        return backingStore == other
+        val entries = entries
+        val otherEntries = other.entries
+        return entries.size == otherEntries.size && otherEntries.all { entry ->
+            @Suppress("UNCHECKED_CAST")
+            val value = get(entry.key as K)
+            value != null && value == entry.value
+        }
     }
 
-    private fun <T> referenceAwareFunction(block: () -> T) = reap().run {
-        block()
+    private fun segmentFor(hash: Int): Segment {
+        return segments[(hash xor (hash ushr 16)) and segmentMask]
     }
 
-    @Synchronized
-    private fun reap() {
-        var zombie = refQueue.poll()
+    private inner class Segment {
+        val refQueue = ReferenceQueue<K>()
+        val store = ConcurrentHashMap<WeakIdentityReference, V>()
+
+        private val reapLock = ReentrantLock()
+
+        fun reap() {
+            if(!reapLock.tryLock()) {
+                return
+            }
 
-        while (zombie != null) {
-            backingStore.remove(zombie)
-            zombie = refQueue.poll()
+            try {
+                var zombie = refQueue.poll()
+                while(zombie != null) {
+                    store.remove(zombie)
+                    zombie = refQueue.poll()
+                }
+            } finally {
+                reapLock.unlock()
+            }
         }
     }
 
     inner class WeakIdentityHashEntry(override val key: K, override val value: V) : Map.Entry<K, V>
 
-    private inner class WeakIdentityReference(obj: K) : WeakReference<K>(obj, refQueue) {
-        private val hash: Int = System.identityHashCode(obj)
+    private inner class WeakIdentityReference(obj: K) : WeakReference<K>(obj, segmentFor(System.identityHashCode(obj)).refQueue) {
+        val hash: Int = System.identityHashCode(obj)
 
         override fun hashCode(): Int = hash
 
         override fun equals(other: Any?): Boolean {
-            if (this === other) {
+            if(this === other) {
                 return true
             }
 
-            if (other is WeakReference<*>) {
-                if (this.get() === other.get())
-                    return true
+            val referent = get() ?: return false
+            return when(other) {
+                is WeakReference<*> -> referent === other.get()
+                is LookupKey -> referent === other.referent
+                else -> false
             }
-            return false
+        }
+    }
+
+    /**
+     * A reusable probe for looking up a key without allocating a [WeakReference].
+     */
+    private class LookupKey {
+        var referent: Any? = null
+        var hash = 0
+
+        fun set(key: Any?) {
+            referent = key
+            hash = System.identityHashCode(key)
+        }
+
+        fun clear() {
+            referent = null
+        }
+
+        override fun hashCode(): Int = hash
+
+        override fun equals(other: Any?): Boolean {
+            return other === this || (other is WeakReference<*> && other.get() === referent)
         }
     }
 }
@@ -111,4 +213,4 @@ class WeakIdentityHashMap<K, V> : Map<K, V> {
 /**
  * Kotlin stdlib style initializer function for the [WeakIdentityHashMap]
  */
-fun<K, V> mutableWeakIdentityHashMap() = WeakIdentityHashMap<K, V>()
\ No newline at end of file
+fun<K, V> mutableWeakIdentityHashMap() = WeakIdentityHashMap<K, V>()
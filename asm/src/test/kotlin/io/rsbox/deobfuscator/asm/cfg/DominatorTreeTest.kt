@@ -0,0 +1,116 @@
+package io.rsbox.deobfuscator.asm.cfg
+
+import io.rsbox.deobfuscator.asm.ClassPool
+import io.rsbox.deobfuscator.asm.editor
+import io.rsbox.deobfuscator.asm.identifier
+import java.io.File
+import java.util.LinkedList
+
+object DominatorTreeTest {
+
+    @JvmStatic
+    fun main(args: Array<String>) {
+        println("Testing dominator tree algorithms.")
+
+        val pool = ClassPool()
+        pool.addJarClasses(File(args.firstOrNull() ?: "gamepack.jar"))
+        pool.build()
+        println("Successfully loaded ${pool.classes.size} into class pool.")
+
+        var methods = 0
+        var blocks = 0
+
+        pool.classes.forEach { cls ->
+            cls.methods.forEach methods@ { method ->
+                if(method.instructions.size() == 0) return@methods
+
+                val graph = FlowGraph(method.editor)
+                graph.initialize()
+
+                val nodes = graph.nodes().map { it as Block }
+
+                DominatorTree.buildTree(graph, false, DominatorTree.PURDUM_MOORE)
+                DominatorTree.buildTree(graph, true, DominatorTree.PURDUM_MOORE)
+                val idoms = nodes.map { it.domParent() }
+                val ipdoms = nodes.map { it.pdomParent() }
+
+                DominatorTree.buildTree(graph, false, DominatorTree.COOPER_HARVEY_KENNEDY)
+                DominatorTree.buildTree(graph, true, DominatorTree.COOPER_HARVEY_KENNEDY)
+
+                check(nodes.map { it.domParent() } == idoms) { "Dominator trees differ in ${method.identifier}." }
+                check(nodes.map { it.pdomParent() } == ipdoms) { "Postdominator trees differ in ${method.identifier}." }
+
+                checkFrontiers(graph, nodes, false, method.identifier)
+                checkFrontiers(graph, nodes, true, method.identifier)
+
+                methods++
+                blocks += nodes.size
+            }
+        }
+
+        println("Dominator trees and frontiers agree for $methods methods ($blocks blocks).")
+    }
+
+    /**
+     * Checks the (post)dominance frontier of every block, and the iterated frontier of
+     * every single block and of all the blocks, against the previous set based results.
+     */
+    private fun checkFrontiers(graph: FlowGraph, nodes: List<Block>, reverse: Boolean, method: String) {
+        val frontier = { block: Block -> if(reverse) graph.pdomFrontier(block) else graph.domFrontier(block) }
+        val idf = { blocks: Collection<Block> -> if(reverse) graph.iteratedPdomFrontier(blocks) else graph.iteratedDomFrontier(blocks) }
+
+        val expected = hashMapOf<Block, Set<Block>>()
+        calcFrontier(if(reverse) graph.sink() else graph.source(), graph, reverse, expected)
+
+        nodes.forEach { block ->
+            check(frontier(block).toSet() == expected[block].orEmpty()) { "Frontier of $block differs in $method." }
+        }
+
+        (nodes.map { listOf(it) } + listOf(nodes)).forEach { blocks ->
+            check(idf(blocks).toSet() == setIdf(blocks, expected)) { "Iterated frontier of $blocks differs in $method." }
+        }
+    }
+
+    /**
+     * The set based frontier computation [DominanceFrontier] used before it moved to
+     * pre-order indices.
+     */
+    private fun calcFrontier(block: Block, graph: FlowGraph, reverse: Boolean, frontiers: MutableMap<Block, Set<Block>>): Set<Block> {
+        val local = linkedSetOf<Block>()
+        val parent = { b: Block -> if(reverse) b.pdomParent() else b.domParent() }
+
+        val children = if(reverse) graph.pdomChildren(block) else graph.domChildren(block)
+        children.forEach { child ->
+            calcFrontier(child as Block, graph, reverse, frontiers).forEach { dfChild ->
+                if(block != parent(dfChild)) local.add(dfChild)
+            }
+        }
+
+        val succs = if(reverse) graph.preds(block) else graph.succs(block)
+        succs.forEach { succ ->
+            if(block != parent(succ as Block)) local.add(succ)
+        }
+
+        frontiers[block] = local
+        return local
+    }
+
+    /**
+     * The hash set worklist [FlowGraph.iteratedDomFrontier] used before it moved to
+     * pre-order indices.
+     */
+    private fun setIdf(blocks: Collection<Block>, frontiers: Map<Block, Set<Block>>): Set<Block> {
+        val idf = hashSetOf<Block>()
+        val inWorklist = HashSet(blocks)
+        val worklist = LinkedList(inWorklist)
+
+        while(worklist.isNotEmpty()) {
+            frontiers[worklist.removeFirst()].orEmpty().forEach { dfBlock ->
+                idf.add(dfBlock)
+                if(inWorklist.add(dfBlock)) worklist.add(dfBlock)
+            }
+        }
+
+        return idf
+    }
+}
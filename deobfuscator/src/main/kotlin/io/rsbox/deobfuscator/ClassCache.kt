@@ -0,0 +1,149 @@
+package io.rsbox.deobfuscator
+
+import io.rsbox.deobfuscator.asm.ClassPool
+import io.rsbox.deobfuscator.asm.file.MappedJarFile
+import io.rsbox.deobfuscator.asm.toByteArray
+import org.objectweb.asm.ClassReader
+import org.objectweb.asm.tree.ClassNode
+import java.io.File
+import java.nio.file.Files
+import java.nio.file.StandardCopyOption
+import java.security.MessageDigest
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ForkJoinPool
+import java.util.stream.Collectors
+
+/**
+ * An on disk cache of the classes produced by the class transformers at the start of the chain.
+ *
+ * Only the leading [ClassTransformer]s are cached, as they see each class on its own. Anything
+ * from the first pool-level [Transformer] on depends on the other classes too, so it runs on every
+ * class on every run and sees the same pool it would without the cache.
+ *
+ * Entries are keyed by the SHA-256 of a class's input bytes together with a fingerprint of
+ * the code which produces them: the names of the cached transformers in order, the Java version,
+ * and the contents of every jar and directory on the runtime class path. The class path holds
+ * the deobfuscator and asm modules as well as the libraries they use, so rebuilding any of them
+ * invalidates the whole cache. Classes found in the cache are loaded as the cached transformers
+ * left them, and are ignored while those transformers run.
+ */
+class ClassCache(private val directory: File, val transformers: List<ClassTransformer>) {
+
+    private val fingerprint = sha256 {
+        transformers.forEach { update(it::class.java.name.toByteArray()) }
+        update(System.getProperty("java.version").toByteArray())
+        codePath().forEach { update(it) }
+    }
+
+    private val keys = ConcurrentHashMap<String, String>()
+    private val hits = mutableSetOf<String>()
+    private val ignoredHits = mutableSetOf<String>()
+
+    init {
+        directory.mkdirs()
+    }
+
+    fun addJarClasses(pool: ClassPool, file: File) {
+        val entries = MappedJarFile(file).use { jar ->
+            jar.entries.filter { it.name.endsWith(".class") }
+                .parallelStream()
+                .map { lookup(jar.read(it)) }
+                .collect(Collectors.toList())
+        }
+
+        entries.forEach { (bytes, hit) ->
+            val cls = pool.addClass(bytes)
+            if(hit) {
+                hits.add(cls.name)
+            }
+        }
+    }
+
+    /**
+     * Ignores every class which was loaded from the cache and is not already ignored, until
+     * [unignoreHits] is called.
+     */
+    fun ignoreHits(pool: ClassPool): Int {
+        return pool.ignoreWhere { cls ->
+            (cls.name in hits).also { if(it) ignoredHits.add(cls.name) }
+        }
+    }
+
+    fun unignoreHits(pool: ClassPool): Int {
+        val count = pool.unignoreWhere { it.name in ignoredHits }
+        ignoredHits.clear()
+        return count
+    }
+
+    /**
+     * Stores every class in the pool which was not loaded from the cache, on the given
+     * [executor] if there is one. This must be called once the cached transformers are done,
+     * and before any other transformer runs.
+     */
+    fun storeMisses(pool: ClassPool, executor: ForkJoinPool?) {
+        val classes = pool.classes.filter { keys.containsKey(it.name) }
+        if(executor != null) {
+            executor.submit { classes.parallelStream().forEach { store(it) } }.get()
+        } else {
+            classes.forEach { store(it) }
+        }
+    }
+
+    private fun store(cls: ClassNode) {
+        val key = keys.getValue(cls.name)
+        val temp = Files.createTempFile(directory.toPath(), key, ".tmp")
+        Files.write(temp, cls.toByteArray())
+        Files.move(temp, File(directory, key).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE)
+    }
+
+    private fun lookup(bytes: ByteArray): Pair<ByteArray, Boolean> {
+        val key = sha256 {
+            update(bytes)
+            update(fingerprint)
+        }.joinToString("") { "%02x".format(it) }
+
+        val file = File(directory, key)
+        if(file.exists()) {
+            return file.readBytes() to true
+        }
+
+        keys[ClassReader(bytes).className] = key
+        return bytes to false
+    }
+
+    /*
+     * The modules may also be loaded from outside the class path, such as by a test runner.
+     */
+    private fun codePath(): List<File> {
+        val classPath = System.getProperty("java.class.path").split(File.pathSeparator)
+            .filter { it.isNotEmpty() }
+            .map { File(it) }
+        val modules = listOf(ClassCache::class.java, ClassPool::class.java).mapNotNull { type ->
+            type.protectionDomain.codeSource?.location?.let { File(it.toURI()) }
+        }
+        return (classPath + modules).map { it.absoluteFile }.distinct()
+    }
+
+    private fun MessageDigest.update(file: File) {
+        file.walkTopDown()
+            .filter { it.isFile }
+            .sortedBy { it.path }
+            .forEach { entry ->
+                update(entry.toRelativeString(file).toByteArray())
+                entry.inputStream().use { input ->
+                    val buffer = ByteArray(8192)
+                    while(true) {
+                        val read = input.read(buffer)
+                        if(read < 0) {
+                            break
+                        }
+                        update(buffer, 0, read)
+                    }
+                }
+            }
+    }
+
+    private fun sha256(block: MessageDigest.() -> Unit): ByteArray {
+        return MessageDigest.getInstance("SHA-256").apply(block).digest()
+    }
+}
@@ -0,0 +1,25 @@
+package io.rsbox.deobfuscator
+
+import io.rsbox.deobfuscator.asm.ClassPool
+import org.objectweb.asm.tree.ClassNode
+
+/**
+ * A [Transformer] which only reads and writes the members of the class it is given.
+ * These can be run on many classes at once by the [Deobfuscator], so any shared state
+ * must be thread safe.
+ */
+interface ClassTransformer : Transformer {
+
+    fun run(cls: ClassNode)
+
+    /**
+     * Called once after every class in the pool has been transformed.
+     */
+    fun finish() {}
+
+    override fun run(pool: ClassPool) {
+        pool.classes.forEach { run(it) }
+        finish()
+    }
+
+}
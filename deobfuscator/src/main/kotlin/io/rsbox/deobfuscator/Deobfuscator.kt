@@ -6,12 +6,16 @@ import io.rsbox.deobfuscator.transformer.RuntimeExceptionRemover
 import io.rsbox.deobfuscator.transformer.multiplier.MultiplierFinder
 import org.tinylog.kotlin.Logger
 import java.io.File
+import java.util.concurrent.ForkJoinPool
 import kotlin.reflect.full.createInstance
 
 object Deobfuscator {
 
     private val pool = ClassPool()
     private var testModeEnabled = false
+    private var workers = 1
+    private var computeFrames = false
+    private var cache: ClassCache? = null
 
     private val transformers = mutableListOf<Transformer>()
 
@@ -24,14 +28,35 @@ object Deobfuscator {
     @JvmStatic
     fun main(args: Array<String>) {
         if(args.size < 2) {
-            throw IllegalArgumentException("Missing required program arguments. deobfuscator.jar <input-jar> <output-jar>")
+            throw IllegalArgumentException("Missing required program arguments. deobfuscator.jar <input-jar> <output-jar> [--test] [--workers=<count>] [--cache=<dir>] [--frames]")
         }
 
         val inputJar = File(args[0])
         val outputJar = File(args[1])
+        var cacheDir: File? = null
+
+        args.drop(2).forEach { arg ->
+            when {
+                arg == "--test" -> testModeEnabled = true
+                arg.startsWith("--workers=") -> workers = arg.substringAfter("=").toInt()
+                arg.startsWith("--cache=") -> cacheDir = File(arg.substringAfter("="))
+                arg == "--frames" -> computeFrames = true
+                else -> throw IllegalArgumentException("Unknown program argument: $arg.")
+            }
+        }
+
+        if(workers < 1) {
+            throw IllegalArgumentException("Worker count must be at least 1.")
+        }
 
-        if(args.size >= 3) {
-            testModeEnabled = args[2] == "--test"
+        cache = cacheDir?.let { dir ->
+            val cachedTransformers = transformers.takeWhile { it is ClassTransformer }.filterIsInstance<ClassTransformer>()
+            if(cachedTransformers.isEmpty()) {
+                Logger.warn("Not caching classes, as the first transformer runs on the whole pool.")
+                null
+            } else {
+                ClassCache(dir, cachedTransformers)
+            }
         }
 
         /*
@@ -41,25 +66,38 @@ object Deobfuscator {
             Logger.info("Enabling post testing mode.")
         }
 
+        if(workers > 1) {
+            Logger.info("Running class transformers and saving on $workers workers.")
+        }
+
         Logger.info("Loading classes from jar: ${inputJar.path}.")
 
         pool.clear()
-        pool.addJarClasses(inputJar)
-        pool.classes.forEach { cls ->
-            if(cls.name.contains("/")) {
-                pool.ignoreClass(cls)
-            }
+        val cache = cache
+        if(cache != null) {
+            cache.addJarClasses(pool, inputJar)
+        } else {
+            pool.addJarClasses(inputJar)
+        }
+        pool.ignoreWhere { it.name.contains("/") }
+        if(cache != null) {
+            Logger.info("Loaded ${cache.ignoreHits(pool)} unchanged classes from cache.")
         }
         pool.build()
         Logger.info("Found ${pool.classes.size} classes. Ignored ${pool.ignoredClasses.size} classes.")
 
-        run()
+        val executor = if(workers > 1) ForkJoinPool(workers) else null
+        try {
+            run(executor)
 
-        /*
-         * Export / saves classes to jar
-         */
-        Logger.info("Saving transformed classes to jar: ${outputJar.path}.")
-        pool.saveToJar(outputJar)
+            /*
+             * Export / saves classes to jar
+             */
+            Logger.info("Saving transformed classes to jar: ${outputJar.path}.")
+            pool.saveToJar(outputJar, computeFrames, executor)
+        } finally {
+            executor?.shutdown()
+        }
 
         Logger.info("Deobfuscator has completed.")
 
@@ -71,14 +109,20 @@ object Deobfuscator {
         }
     }
 
-    private fun run() {
+    private fun run(executor: ForkJoinPool?) {
         Logger.info("Starting RSBox deobfuscator.")
 
-        transformers.forEach { transformer ->
-            val start = System.currentTimeMillis()
-            transformer.run(pool)
-            val delta = System.currentTimeMillis() - start
-            Logger.info("Finished running transformer: ${transformer::class.simpleName} in ${delta}ms.")
+        val cache = cache
+        if(cache != null) {
+            /*
+             * Cache hits skip the cached transformers, but every later transformer sees them.
+             */
+            TransformerScheduler(cache.transformers).run(pool, executor)
+            cache.storeMisses(pool, executor)
+            cache.unignoreHits(pool)
+            TransformerScheduler(transformers.drop(cache.transformers.size)).run(pool, executor)
+        } else {
+            TransformerScheduler(transformers).run(pool, executor)
         }
 
         Logger.info("Successfully completed deobfuscation transforms.")
@@ -0,0 +1,19 @@
+package io.rsbox.deobfuscator
+
+import org.objectweb.asm.tree.ClassNode
+import org.objectweb.asm.tree.MethodNode
+
+/**
+ * A [ClassTransformer] which only reads and writes the method it is given.
+ * Consecutive method transformers are run on each method in turn before the [TransformerScheduler]
+ * moves onto the next method, so each method is only walked once for all of them.
+ */
+interface MethodTransformer : ClassTransformer {
+
+    fun run(method: MethodNode)
+
+    override fun run(cls: ClassNode) {
+        cls.methods.forEach { run(it) }
+    }
+
+}
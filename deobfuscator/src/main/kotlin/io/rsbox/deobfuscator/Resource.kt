@@ -0,0 +1,33 @@
+package io.rsbox.deobfuscator
+
+/**
+ * The parts of the class pool a [Transformer] can read or invalidate. Derived
+ * resources are invalidated whenever one of their sources is.
+ */
+enum class Resource(vararg sources: Resource) {
+
+    HIERARCHY,
+    MEMBERS,
+    INSTRUCTIONS,
+    TRY_CATCH_BLOCKS,
+    FRAMES(INSTRUCTIONS, TRY_CATCH_BLOCKS);
+
+    val sources = sources.toSet()
+
+    companion object {
+
+        val ALL: Set<Resource> = values().toSet()
+
+        /**
+         * Expands the given resources with every resource they are computed from.
+         */
+        fun readClosure(resources: Set<Resource>) = resources.flatMapTo(mutableSetOf()) { it.sources + it }
+
+        /**
+         * Expands the given resources with every resource computed from them.
+         */
+        fun invalidationClosure(resources: Set<Resource>) = values().filterTo(resources.toMutableSet()) { derived ->
+            derived.sources.any { it in resources }
+        }
+    }
+}
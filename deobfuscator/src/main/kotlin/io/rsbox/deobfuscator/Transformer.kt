@@ -4,6 +4,16 @@ import io.rsbox.deobfuscator.asm.ClassPool
 
 interface Transformer {
 
+    /**
+     * The resources this transformer depends on. Defaults to everything.
+     */
+    val reads: Set<Resource> get() = Resource.ALL
+
+    /**
+     * The resources this transformer modifies. Defaults to everything.
+     */
+    val invalidates: Set<Resource> get() = Resource.ALL
+
     fun run(pool: ClassPool)
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,129 @@
+package io.rsbox.deobfuscator
+
+import io.rsbox.deobfuscator.asm.ClassPool
+import org.objectweb.asm.tree.ClassNode
+import org.tinylog.kotlin.Logger
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ForkJoinPool
+import java.util.concurrent.Future
+
+/**
+ * Plans the execution of an ordered list of transformers.
+ *
+ * Consecutive [ClassTransformer]s are fused into a single stage which takes each class
+ * through all of them before moving onto the next class, so no stage has to wait for the
+ * whole pool. Within such a stage, consecutive [MethodTransformer]s take each method through all
+ * of them in the same way. Adjacent stages which do not read or invalidate anything the other one
+ * invalidates are grouped together and run at the same time when a worker pool is given.
+ */
+class TransformerScheduler(transformers: List<Transformer>) {
+
+    val groups: List<List<Stage>>
+
+    init {
+        val stages = mutableListOf<Stage>()
+        transformers.forEach { transformer ->
+            val last = stages.lastOrNull()
+            if(transformer is ClassTransformer && last is Stage.Classes) {
+                last.transformers.add(transformer)
+            } else if(transformer is ClassTransformer) {
+                stages.add(Stage.Classes(mutableListOf(transformer)))
+            } else {
+                stages.add(Stage.Pool(transformer))
+            }
+        }
+
+        val groups = mutableListOf<MutableList<Stage>>()
+        stages.forEach { stage ->
+            val last = groups.lastOrNull()
+            if(last != null && last.none { it.conflicts(stage) }) {
+                last.add(stage)
+            } else {
+                groups.add(mutableListOf(stage))
+            }
+        }
+        this.groups = groups
+    }
+
+    fun run(pool: ClassPool, executor: ForkJoinPool?) {
+        groups.forEach { group ->
+            if(executor != null && group.size > 1) {
+                val tasks = group.map { stage -> executor.submit { runStage(stage, pool, executor) } }
+                tasks.forEach { it.await() }
+            } else {
+                group.forEach { runStage(it, pool, executor) }
+            }
+        }
+    }
+
+    private fun runStage(stage: Stage, pool: ClassPool, executor: ForkJoinPool?) {
+        val start = System.currentTimeMillis()
+        when(stage) {
+            is Stage.Pool -> stage.transformer.run(pool)
+            is Stage.Classes -> {
+                val classes = pool.classes
+                if(executor != null) {
+                    executor.submit { classes.parallelStream().forEach { stage.run(it) } }.await()
+                } else {
+                    classes.forEach { stage.run(it) }
+                }
+                stage.transformers.forEach { it.finish() }
+            }
+        }
+        val delta = System.currentTimeMillis() - start
+        Logger.info("Finished running transformer: ${stage.name} in ${delta}ms.")
+    }
+
+    private fun Future<*>.await() {
+        try {
+            get()
+        } catch(e: ExecutionException) {
+            throw e.cause ?: e
+        }
+    }
+
+    sealed class Stage {
+
+        abstract val transformers: List<Transformer>
+
+        val name get() = transformers.joinToString(" -> ") { it::class.simpleName.toString() }
+
+        val reads get() = Resource.readClosure(transformers.flatMapTo(mutableSetOf()) { it.reads })
+        val invalidates get() = Resource.invalidationClosure(transformers.flatMapTo(mutableSetOf()) { it.invalidates })
+
+        fun conflicts(other: Stage): Boolean {
+            return invalidates.any { it in other.reads || it in other.invalidates } || other.invalidates.any { it in reads }
+        }
+
+        class Pool(val transformer: Transformer) : Stage() {
+            override val transformers = listOf(transformer)
+        }
+
+        class Classes(override val transformers: MutableList<ClassTransformer>) : Stage() {
+
+            fun run(cls: ClassNode) {
+                var i = 0
+                while(i < transformers.size) {
+                    val transformer = transformers[i]
+                    if(transformer !is MethodTransformer) {
+                        transformer.run(cls)
+                        i++
+                        continue
+                    }
+
+                    var end = i + 1
+                    while(end < transformers.size && transformers[end] is MethodTransformer) {
+                        end++
+                    }
+
+                    cls.methods.forEach { method ->
+                        for(j in i until end) {
+                            (transformers[j] as MethodTransformer).run(method)
+                        }
+                    }
+                    i = end
+                }
+            }
+        }
+    }
+}
@@ -1,29 +1,123 @@
 package io.rsbox.deobfuscator.transformer
 
-import io.rsbox.deobfuscator.Transformer
-import io.rsbox.deobfuscator.asm.ClassPool
-import io.rsbox.deobfuscator.asm.owner
-import org.objectweb.asm.tree.analysis.Analyzer
-import org.objectweb.asm.tree.analysis.BasicInterpreter
+import io.rsbox.deobfuscator.MethodTransformer
+import io.rsbox.deobfuscator.Resource
+import io.rsbox.deobfuscator.asm.analysis.FrameKind
+import io.rsbox.deobfuscator.asm.identifier
+import io.rsbox.deobfuscator.asm.pool
+import org.objectweb.asm.tree.AbstractInsnNode
+import org.objectweb.asm.tree.JumpInsnNode
+import org.objectweb.asm.tree.LabelNode
+import org.objectweb.asm.tree.LineNumberNode
+import org.objectweb.asm.tree.LookupSwitchInsnNode
+import org.objectweb.asm.tree.MethodNode
+import org.objectweb.asm.tree.TableSwitchInsnNode
 import org.tinylog.kotlin.Logger
+import java.util.Collections
+import java.util.IdentityHashMap
+import java.util.concurrent.atomic.AtomicInteger
 
-class DeadCodeRemover : Transformer {
+/**
+ * Removes the instructions the control flow analysis never reaches.
+ *
+ * The dead instructions of a method are unlinked in a single pass over a snapshot of its
+ * instruction list, as removing a node from the list does not need to search for it.
+ * Try-catch blocks left without any instruction in their range are dropped, and so are the
+ * labels nothing refers to anymore.
+ */
+class DeadCodeRemover : MethodTransformer {
 
-    private var count = 0
+    override val reads = setOf(Resource.FRAMES)
+    override val invalidates = setOf(Resource.INSTRUCTIONS, Resource.TRY_CATCH_BLOCKS)
 
-    override fun run(pool: ClassPool) {
-        pool.classes.forEach { cls ->
-            cls.methods.forEach { method ->
-                val insns = method.instructions.toArray()
-                val frames = Analyzer(BasicInterpreter()).analyze(method.owner.name, method)
-                for(i in frames.indices) {
-                    if(frames[i] == null) {
-                        method.instructions.remove(insns[i])
-                        count++
-                    }
+    private val insnCount = AtomicInteger()
+    private val tryCatchBlockCount = AtomicInteger()
+    private val labelCount = AtomicInteger()
+
+    override fun run(method: MethodNode) {
+        val frames = method.pool.analysis.frames(method, FrameKind.BASIC)
+        val insns = method.instructions.toArray()
+
+        /*
+         * Labels are kept for now, as try-catch blocks and local variables may still refer to them.
+         * liveCounts[i] is the number of live real instructions before index i.
+         */
+        val live = BooleanArray(insns.size) { frames[it] != null || insns[it] is LabelNode }
+        val liveCounts = IntArray(insns.size + 1)
+        for(i in insns.indices) {
+            liveCounts[i + 1] = liveCounts[i] + if(live[i] && insns[i].opcode >= 0) 1 else 0
+        }
+
+        val deadInsns = live.count { !it }
+        val tryCatchBlocks = method.tryCatchBlocks.size
+        method.tryCatchBlocks.removeIf { tcb ->
+            val start = method.instructions.indexOf(tcb.start)
+            val end = method.instructions.indexOf(tcb.end)
+            liveCounts[end] == liveCounts[start]
+        }
+        val deadTryCatchBlocks = tryCatchBlocks - method.tryCatchBlocks.size
+
+        if(deadInsns == 0 && deadTryCatchBlocks == 0) {
+            return
+        }
+
+        val labels = referencedLabels(method, insns, live)
+        var deadLabels = 0
+        for(i in insns.indices) {
+            val insn = insns[i]
+            if(insn is LabelNode && insn !in labels) {
+                method.instructions.remove(insn)
+                deadLabels++
+            } else if(!live[i]) {
+                method.instructions.remove(insn)
+            }
+        }
+
+        insnCount.addAndGet(deadInsns)
+        tryCatchBlockCount.addAndGet(deadTryCatchBlocks)
+        labelCount.addAndGet(deadLabels)
+        Logger.debug("Removed $deadInsns dead instructions, $deadTryCatchBlocks try-catch blocks and $deadLabels labels from ${method.identifier}.")
+    }
+
+    private fun referencedLabels(method: MethodNode, insns: Array<AbstractInsnNode>, live: BooleanArray): Set<LabelNode> {
+        val labels = Collections.newSetFromMap(IdentityHashMap<LabelNode, Boolean>())
+        for(i in insns.indices) {
+            if(!live[i]) {
+                continue
+            }
+            when(val insn = insns[i]) {
+                is JumpInsnNode -> labels.add(insn.label)
+                is LineNumberNode -> labels.add(insn.start)
+                is TableSwitchInsnNode -> {
+                    labels.add(insn.dflt)
+                    labels.addAll(insn.labels)
+                }
+                is LookupSwitchInsnNode -> {
+                    labels.add(insn.dflt)
+                    labels.addAll(insn.labels)
                 }
             }
         }
-        Logger.info("Removed $count dead instructions.")
+
+        method.tryCatchBlocks.forEach { tcb ->
+            labels.add(tcb.start)
+            labels.add(tcb.end)
+            labels.add(tcb.handler)
+        }
+        method.localVariables?.forEach { local ->
+            labels.add(local.start)
+            labels.add(local.end)
+        }
+        listOfNotNull(method.visibleLocalVariableAnnotations, method.invisibleLocalVariableAnnotations).forEach { annotations ->
+            annotations.forEach { annotation ->
+                labels.addAll(annotation.start)
+                labels.addAll(annotation.end)
+            }
+        }
+        return labels
+    }
+
+    override fun finish() {
+        Logger.info("Removed $insnCount dead instructions, $tryCatchBlockCount try-catch blocks and $labelCount labels.")
     }
-}
\ No newline at end of file
+}
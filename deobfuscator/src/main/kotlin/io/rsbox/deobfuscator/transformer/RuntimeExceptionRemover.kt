@@ -1,27 +1,31 @@
 package io.rsbox.deobfuscator.transformer
 
-import io.rsbox.deobfuscator.Transformer
-import io.rsbox.deobfuscator.asm.ClassPool
+import io.rsbox.deobfuscator.MethodTransformer
+import io.rsbox.deobfuscator.Resource
 import org.objectweb.asm.Type
+import org.objectweb.asm.tree.MethodNode
 import org.tinylog.kotlin.Logger
 import java.lang.RuntimeException
+import java.util.concurrent.atomic.AtomicInteger
 
-class RuntimeExceptionRemover : Transformer {
+class RuntimeExceptionRemover : MethodTransformer {
 
-    private var count = 0
+    override val reads = setOf(Resource.TRY_CATCH_BLOCKS)
+    override val invalidates = setOf(Resource.TRY_CATCH_BLOCKS)
 
-    override fun run(pool: ClassPool) {
-        pool.classes.forEach { cls ->
-            cls.methods.forEach { method ->
-                val tryCatchBlocks = method.tryCatchBlocks.toList()
-                tryCatchBlocks.forEach { tcb ->
-                    if(tcb.type == Type.getInternalName(RuntimeException::class.java)) {
-                        method.tryCatchBlocks.remove(tcb)
-                        count++
-                    }
-                }
+    private val count = AtomicInteger()
+
+    override fun run(method: MethodNode) {
+        val tryCatchBlocks = method.tryCatchBlocks.toList()
+        tryCatchBlocks.forEach { tcb ->
+            if(tcb.type == Type.getInternalName(RuntimeException::class.java)) {
+                method.tryCatchBlocks.remove(tcb)
+                count.incrementAndGet()
             }
         }
+    }
+
+    override fun finish() {
         Logger.info("Removed $count RuntimeException try-catch blocks.")
     }
 }
\ No newline at end of file
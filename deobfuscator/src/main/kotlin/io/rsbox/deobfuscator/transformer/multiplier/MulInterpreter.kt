@@ -0,0 +1,111 @@
+package io.rsbox.deobfuscator.transformer.multiplier
+
+import org.objectweb.asm.Opcodes.*
+import org.objectweb.asm.Type
+import org.objectweb.asm.tree.AbstractInsnNode
+import org.objectweb.asm.tree.FieldInsnNode
+import org.objectweb.asm.tree.InvokeDynamicInsnNode
+import org.objectweb.asm.tree.LdcInsnNode
+import org.objectweb.asm.tree.MethodInsnNode
+import org.objectweb.asm.tree.analysis.Interpreter
+import java.util.IdentityHashMap
+
+/**
+ * Interprets a method into [MulValue]s.
+ *
+ * Values are interned per instruction, so interpreting the same instruction again while the
+ * analyzer iterates over a loop does not allocate, and [merge] returns the first value itself
+ * whenever the result is unchanged. A new interpreter must be used for each method.
+ */
+class MulInterpreter : Interpreter<MulValue>(ASM9) {
+
+    private val values = IdentityHashMap<AbstractInsnNode, MulValue>()
+
+    override fun newValue(type: Type?): MulValue? {
+        if(type == Type.VOID_TYPE) {
+            return null
+        }
+        return MulValue.unknown(type?.size ?: 1)
+    }
+
+    override fun newOperation(insn: AbstractInsnNode): MulValue = when(insn.opcode) {
+        LCONST_0, LCONST_1, DCONST_0, DCONST_1 -> MulValue.UNKNOWN_WIDE
+        LDC -> {
+            val cst = (insn as LdcInsnNode).cst
+            when {
+                isMultiplier(cst) -> values.getOrPut(insn) { MulValue.constant(cst as Number) }
+                cst is Long || cst is Double -> MulValue.UNKNOWN_WIDE
+                else -> MulValue.UNKNOWN
+            }
+        }
+        GETSTATIC -> fieldRead(insn as FieldInsnNode)
+        else -> MulValue.UNKNOWN
+    }
+
+    override fun copyOperation(insn: AbstractInsnNode, value: MulValue) = value
+
+    override fun unaryOperation(insn: AbstractInsnNode, value: MulValue): MulValue? = when(insn.opcode) {
+        LNEG, DNEG, I2L, I2D, L2D, F2L, F2D, D2L -> MulValue.UNKNOWN_WIDE
+        GETFIELD -> fieldRead(insn as FieldInsnNode)
+        IFEQ, IFNE, IFLT, IFGE, IFGT, IFLE, IFNULL, IFNONNULL, TABLESWITCH, LOOKUPSWITCH,
+        IRETURN, LRETURN, FRETURN, DRETURN, ARETURN, PUTSTATIC, MONITORENTER, MONITOREXIT, ATHROW -> null
+        else -> MulValue.UNKNOWN
+    }
+
+    override fun binaryOperation(insn: AbstractInsnNode, value1: MulValue, value2: MulValue): MulValue? = when(insn.opcode) {
+        IMUL, LMUL -> {
+            val multiplier = value1.constant ?: value2.constant
+            if(multiplier == null) {
+                MulValue.unknown(value1.size)
+            } else {
+                values[insn]?.takeIf { it.multiplier == multiplier }
+                    ?: MulValue.product(multiplier).also { values[insn] = it }
+            }
+        }
+        LALOAD, DALOAD, LADD, DADD, LSUB, DSUB, DMUL, LDIV, DDIV, LREM, DREM,
+        LSHL, LSHR, LUSHR, LAND, LOR, LXOR -> MulValue.UNKNOWN_WIDE
+        IF_ICMPEQ, IF_ICMPNE, IF_ICMPLT, IF_ICMPGE, IF_ICMPGT, IF_ICMPLE, IF_ACMPEQ, IF_ACMPNE, PUTFIELD -> null
+        else -> MulValue.UNKNOWN
+    }
+
+    override fun ternaryOperation(insn: AbstractInsnNode, value1: MulValue, value2: MulValue, value3: MulValue): MulValue? = null
+
+    override fun naryOperation(insn: AbstractInsnNode, values: MutableList<out MulValue>): MulValue? {
+        val desc = when(insn) {
+            is MethodInsnNode -> insn.desc
+            is InvokeDynamicInsnNode -> insn.desc
+            else -> return MulValue.UNKNOWN
+        }
+        return when(desc[desc.lastIndexOf(')') + 1]) {
+            'V' -> null
+            'J', 'D' -> MulValue.UNKNOWN_WIDE
+            else -> MulValue.UNKNOWN
+        }
+    }
+
+    override fun returnOperation(insn: AbstractInsnNode, value: MulValue, expected: MulValue) {}
+
+    override fun merge(value1: MulValue, value2: MulValue): MulValue {
+        if(value1 == value2) {
+            return value1
+        }
+        return MulValue.unknown(if(value1.size == value2.size) value1.size else 1)
+    }
+
+    private fun fieldRead(insn: FieldInsnNode): MulValue {
+        val size = if(insn.desc == "J" || insn.desc == "D") 2 else 1
+        if(insn.desc != "I" && insn.desc != "J") {
+            return MulValue.unknown(size)
+        }
+        return values.getOrPut(insn) { MulValue.fieldRead(insn, size) }
+    }
+
+    /*
+     * Multipliers are odd, so that they have an inverse, and are never the trivial one.
+     */
+    private fun isMultiplier(cst: Any?) = when(cst) {
+        is Int -> cst and 1 == 1 && cst != 1 && cst != -1
+        is Long -> cst and 1L == 1L && cst != 1L && cst != -1L
+        else -> false
+    }
+}
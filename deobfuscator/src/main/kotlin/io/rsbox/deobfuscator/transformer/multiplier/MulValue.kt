@@ -0,0 +1,56 @@
+package io.rsbox.deobfuscator.transformer.multiplier
+
+import org.objectweb.asm.tree.FieldInsnNode
+import org.objectweb.asm.tree.analysis.Value
+
+/**
+ * A value in the multiplier analysis. It only tracks whether the value is a multiplier
+ * constant, a field read, or the product of a multiplier constant with something else.
+ * Every other value is one of the two shared unknown values.
+ */
+class MulValue private constructor(
+    private val size: Int,
+    val constant: Number?,
+    val fieldRead: FieldInsnNode?,
+    val multiplier: Number?
+) : Value {
+
+    override fun getSize(): Int = size
+
+    override fun hashCode(): Int {
+        var hash = size
+        hash = 31 * hash + (constant?.hashCode() ?: 0)
+        hash = 31 * hash + System.identityHashCode(fieldRead)
+        hash = 31 * hash + (multiplier?.hashCode() ?: 0)
+        return hash
+    }
+
+    override fun equals(other: Any?): Boolean {
+        if(this === other) {
+            return true
+        }
+        return other is MulValue && other.size == size && other.constant == constant
+                && other.fieldRead === fieldRead && other.multiplier == multiplier
+    }
+
+    override fun toString(): String = when {
+        constant != null -> "constant($constant)"
+        fieldRead != null -> "read(${fieldRead.owner}.${fieldRead.name})"
+        multiplier != null -> "product($multiplier)"
+        else -> "unknown"
+    }
+
+    companion object {
+
+        val UNKNOWN = MulValue(1, null, null, null)
+        val UNKNOWN_WIDE = MulValue(2, null, null, null)
+
+        fun unknown(size: Int) = if(size == 2) UNKNOWN_WIDE else UNKNOWN
+
+        fun constant(value: Number) = MulValue(if(value is Long) 2 else 1, value, null, null)
+
+        fun fieldRead(insn: FieldInsnNode, size: Int) = MulValue(size, null, insn, null)
+
+        fun product(multiplier: Number) = MulValue(if(multiplier is Long) 2 else 1, null, null, multiplier)
+    }
+}
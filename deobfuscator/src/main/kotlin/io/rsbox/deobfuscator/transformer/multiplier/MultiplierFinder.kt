@@ -1,67 +1,137 @@
 package io.rsbox.deobfuscator.transformer.multiplier
 
+import com.google.common.collect.ConcurrentHashMultiset
+import io.rsbox.deobfuscator.Resource
 import io.rsbox.deobfuscator.Transformer
 import io.rsbox.deobfuscator.asm.ClassPool
-import org.objectweb.asm.Opcodes.ASM9
-import org.objectweb.asm.Type
-import org.objectweb.asm.tree.AbstractInsnNode
-import org.objectweb.asm.tree.analysis.Analyzer
-import org.objectweb.asm.tree.analysis.Interpreter
-import org.objectweb.asm.tree.analysis.SourceInterpreter
-import org.objectweb.asm.tree.analysis.SourceValue
-import org.objectweb.asm.tree.analysis.Value
-
+import io.rsbox.deobfuscator.asm.analysis.FrameKind
+import io.rsbox.deobfuscator.asm.resolveField
+import io.rsbox.deobfuscator.asm.virtualFields
+import org.objectweb.asm.Opcodes.*
+import org.objectweb.asm.tree.FieldInsnNode
+import org.objectweb.asm.tree.FieldNode
+import org.objectweb.asm.tree.MethodNode
+import org.tinylog.kotlin.Logger
+import java.util.concurrent.ConcurrentHashMap
+import java.util.stream.Collectors
+
+/**
+ * Finds the multipliers the obfuscator applies to int and long fields.
+ *
+ * Each field is stored multiplied by an odd encoder, and is multiplied by the decoder, the
+ * modular inverse of the encoder, whenever it is read. Every method is analyzed on a worker
+ * thread, which adds the constants multiplied with reads of a field as decoder candidates and
+ * the constants multiplied into writes of a field as encoder candidates. Once all methods are
+ * done, each field's decoder is the one with the most votes from both sides.
+ */
 class MultiplierFinder : Transformer {
 
-    private val multipliers = Multipliers()
-    private val interpreter = MulInterpreter(multipliers)
-    private val analyzer = Analyzer(interpreter)
+    override val reads = setOf(Resource.HIERARCHY, Resource.MEMBERS, Resource.FRAMES)
+    override val invalidates = emptySet<Resource>()
 
-    override fun run(pool: ClassPool) {
-        pool.classes.forEach { cls ->
-            cls.methods.forEach { method ->
-                analyzer.analyze(cls.name, method)
-            }
-        }
-        println("Finished")
-    }
+    var multipliers = Multipliers(emptyMap())
+        private set
 
-    class Multipliers {
+    private val frameKind = FrameKind("multiplier") { MulInterpreter() }
 
-    }
-
-    open class MulValue(val src: SourceValue) : Value {
-
-        override fun getSize(): Int = src.size
+    override fun run(pool: ClassPool) {
+        val candidates = ConcurrentHashMap<FieldNode, Candidates>()
 
-        override fun hashCode(): Int = src.hashCode()
+        pool.classes.parallelStream()
+            .flatMap { it.methods.stream() }
+            .filter { method -> method.instructions.any { it.opcode == IMUL || it.opcode == LMUL } }
+            .forEach { method -> collect(pool, method, candidates) }
 
-        override fun equals(other: Any?): Boolean = other is MulValue && other.src == src
+        multipliers = Multipliers(candidates.entries.parallelStream()
+            .map { (field, candidates) -> field to candidates.solve() }
+            .filter { it.second != null }
+            .collect(Collectors.toMap({ it.first }, { it.second!! })))
 
-        class Two(src: SourceValue, val value1: MulValue, val value2: MulValue) : MulValue(src)
+        Logger.info("Found ${multipliers.size} field multipliers.")
     }
 
-    class MulInterpreter(private val multipliers: Multipliers) : Interpreter<MulValue>(ASM9) {
-
-        private val src = SourceInterpreter()
+    private fun collect(pool: ClassPool, method: MethodNode, candidates: ConcurrentHashMap<FieldNode, Candidates>) {
+        val frames = pool.analysis.frames(method, frameKind)
+
+        method.instructions.forEachIndexed { index, insn ->
+            val frame = frames[index] ?: return@forEachIndexed
+            when(insn.opcode) {
+                IMUL, LMUL -> {
+                    val value1 = frame.getStack(frame.stackSize - 2)
+                    val value2 = frame.getStack(frame.stackSize - 1)
+                    val constant = value1.constant ?: value2.constant ?: return@forEachIndexed
+                    val read = (if(value1.constant != null) value2 else value1).fieldRead ?: return@forEachIndexed
+                    val field = resolveField(pool, read, constant) ?: return@forEachIndexed
+                    candidates.computeIfAbsent(field) { Candidates() }.decoders.add(constant)
+                }
+
+                PUTFIELD, PUTSTATIC -> {
+                    val constant = frame.getStack(frame.stackSize - 1).multiplier ?: return@forEachIndexed
+                    val field = resolveField(pool, insn as FieldInsnNode, constant) ?: return@forEachIndexed
+                    candidates.computeIfAbsent(field) { Candidates() }.encoders.add(constant)
+                }
+            }
+        }
+    }
 
-        override fun newValue(type: Type?) = src.newValue(type)?.let { MulValue(it) }
+    private fun resolveField(pool: ClassPool, insn: FieldInsnNode, constant: Number): FieldNode? {
+        val desc = if(constant is Int) "I" else "J"
+        if(insn.desc != desc) {
+            return null
+        }
+        return pool.findClass(insn.owner)?.resolveField(insn.name, insn.desc)?.virtualFields?.first()
+    }
 
-        override fun newOperation(insn: AbstractInsnNode) = MulValue(src.newOperation(insn))
+    private class Candidates {
 
-        override fun merge(value1: MulValue, value2: MulValue) = MulValue(src.merge(value1.src, value2.src))
+        val decoders = ConcurrentHashMultiset.create<Number>()
+        val encoders = ConcurrentHashMultiset.create<Number>()
 
-        override fun returnOperation(insn: AbstractInsnNode, value: MulValue, expected: MulValue) {}
+        /*
+         * Every encoder votes for its inverse, so a decoder seen on both the read and the write
+         * side of a field always outweighs one seen on only one side the same number of times.
+         * Ties are ambiguous and leave the field unsolved.
+         */
+        fun solve(): Number? {
+            val votes = hashMapOf<Number, Int>()
+            decoders.entrySet().forEach { votes.merge(it.element, it.count, Int::plus) }
+            encoders.entrySet().forEach { votes.merge(inverse(it.element), it.count, Int::plus) }
 
-        override fun naryOperation(insn: AbstractInsnNode, values: MutableList<out MulValue>) = MulValue(src.naryOperation(insn, values.map { it.src }))
+            val best = votes.maxByOrNull { it.value } ?: return null
+            if(votes.count { it.value == best.value } > 1) {
+                return null
+            }
+            return best.key
+        }
+    }
 
-        override fun ternaryOperation(insn: AbstractInsnNode, value1: MulValue, value2: MulValue, value3: MulValue) = MulValue(src.ternaryOperation(insn, value1.src, value2.src, value3.src))
+    class Multipliers(private val decoders: Map<FieldNode, Number>) {
 
-        override fun binaryOperation(insn: AbstractInsnNode, value1: MulValue, value2: MulValue) = MulValue(src.binaryOperation(insn, value1.src, value2.src))
+        val size get() = decoders.size
 
-        override fun unaryOperation(insn: AbstractInsnNode, value: MulValue) = MulValue(src.unaryOperation(insn, value.src))
+        fun getDecoder(field: FieldNode): Number? = decoders[field.virtualFields.first()]
 
-        override fun copyOperation(insn: AbstractInsnNode, value: MulValue) = MulValue(src.copyOperation(insn, value.src))
+        fun getEncoder(field: FieldNode): Number? = getDecoder(field)?.let { inverse(it) }
+    }
 
+    companion object {
+
+        /*
+         * Newton's iteration for the inverse modulo 2^32 or 2^64. Any odd x is its own inverse
+         * modulo 8, and each step doubles the number of correct low bits.
+         */
+        private fun inverse(value: Number): Number = when(value) {
+            is Int -> {
+                var inverse = value
+                repeat(4) { inverse *= 2 - value * inverse }
+                inverse
+            }
+            else -> {
+                val x = value.toLong()
+                var inverse = x
+                repeat(5) { inverse *= 2 - x * inverse }
+                inverse
+            }
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,82 @@
+package io.rsbox.deobfuscator.transformer
+
+import io.rsbox.deobfuscator.asm.ClassPool
+import io.rsbox.deobfuscator.asm.getMethod
+import io.rsbox.deobfuscator.asm.toByteArray
+import org.objectweb.asm.ClassReader
+import org.objectweb.asm.ClassWriter
+import org.objectweb.asm.Opcodes.*
+import org.objectweb.asm.tree.ClassNode
+import org.objectweb.asm.tree.InsnNode
+import org.objectweb.asm.tree.JumpInsnNode
+import org.objectweb.asm.tree.LabelNode
+import org.objectweb.asm.tree.MethodNode
+import org.objectweb.asm.tree.analysis.Analyzer
+import org.objectweb.asm.tree.analysis.BasicVerifier
+
+/**
+ * Runs the [DeadCodeRemover] on a method which ends in dead code, including a label only a dead
+ * jump refers to, and checks that the result is a well formed instruction list which survives a
+ * round trip through the class writer and the analyzer.
+ */
+object DeadCodeRemoverTest {
+
+    @JvmStatic
+    fun main(args: Array<String>) {
+        println("Testing dead code remover.")
+
+        val pool = ClassPool()
+        val cls = pool.addClass(createClass())
+        pool.build()
+
+        val method = cls.getMethod("test", "()I")!!
+        DeadCodeRemover().run(method)
+
+        val insns = method.instructions
+        var count = 0
+        var insn = insns.first
+        while(insn != null) {
+            count++
+            insn = insn.next
+        }
+        check(count == insns.size()) { "List links $count nodes but has size ${insns.size()}." }
+        check(insns.first.previous == null) { "First node still links to a removed node." }
+        check(insns.last.next == null) { "Last node still links to a removed node." }
+        check(insns.toArray().size == 2) { "Expected 2 live instructions, found ${insns.toArray().size}." }
+
+        val written = ClassNode()
+        ClassReader(cls.toByteArray()).accept(written, 0)
+        val writtenMethod = written.methods.first { it.name == "test" }
+        check(writtenMethod.instructions.size() == insns.size()) { "Class writer wrote removed instructions." }
+        Analyzer(BasicVerifier()).analyze(written.name, writtenMethod)
+
+        println("Successfully removed dead code.")
+    }
+
+    /*
+     * static int test() {
+     *     return 1;
+     *     dead: return 2;
+     *     goto dead;
+     * }
+     */
+    private fun createClass(): ByteArray {
+        val cls = ClassNode()
+        cls.visit(V1_6, ACC_PUBLIC, "DeadCode", null, "java/lang/Object", null)
+
+        val method = MethodNode(ACC_STATIC, "test", "()I", null, null)
+        val dead = LabelNode()
+        method.instructions.add(InsnNode(ICONST_1))
+        method.instructions.add(InsnNode(IRETURN))
+        method.instructions.add(dead)
+        method.instructions.add(InsnNode(ICONST_2))
+        method.instructions.add(InsnNode(IRETURN))
+        method.instructions.add(JumpInsnNode(GOTO, dead))
+        method.maxStack = 1
+        cls.methods.add(method)
+
+        val writer = ClassWriter(0)
+        cls.accept(writer)
+        return writer.toByteArray()
+    }
+}